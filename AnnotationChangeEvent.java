@@ -0,0 +1,62 @@
+import javax.swing.event.ChangeEvent;
+import java.awt.*;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+// Change event that also tells which part of the photo has to be drawn again.
+// The region is in image coordinates, a null region means that the whole photo changed.
+// The changed lines and texts are given by their index in the model.
+public class AnnotationChangeEvent extends ChangeEvent {
+    private static final long serialVersionUID = 1L;
+
+    private static final BitSet NONE = new BitSet();
+
+    private final Rectangle region;
+    private final BitSet changedLines;
+    private final BitSet changedTexts;
+
+    public AnnotationChangeEvent(Object source, Rectangle region) {
+        this(source, region, NONE, NONE);
+    }
+
+    public AnnotationChangeEvent(Object source, Rectangle region, BitSet changedLines, BitSet changedTexts) {
+        super(source);
+        this.region = region;
+        this.changedLines = changedLines;
+        this.changedTexts = changedTexts;
+    }
+
+    public Rectangle getRegion() {
+        return region;
+    }
+
+    public BitSet getChangedLines() {
+        return (BitSet) changedLines.clone();
+    }
+
+    public BitSet getChangedTexts() {
+        return (BitSet) changedTexts.clone();
+    }
+
+    // True when the change is limited to the lines and texts accepted by the predicates
+    public boolean isLimitedTo(IntPredicate lines, IntPredicate texts) {
+        if (region == null) {
+            return false;
+        }
+        for (int i = changedLines.nextSetBit(0); i >= 0; i = changedLines.nextSetBit(i + 1)) {
+            if (!lines.test(i)) {
+                return false;
+            }
+        }
+        for (int i = changedTexts.nextSetBit(0); i >= 0; i = changedTexts.nextSetBit(i + 1)) {
+            if (!texts.test(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Rectangle regionOf(ChangeEvent e) {
+        return e instanceof AnnotationChangeEvent ? ((AnnotationChangeEvent) e).getRegion() : null;
+    }
+}
@@ -0,0 +1,309 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Binary file keeping the annotations of a photo, stored next to it with the same name followed by SUFFIX.
+// Layout, fixed size numbers are big endian:
+//   header:   magic "PANN", version, width and height of the photo, section count (ints)
+//   sections: for every section its type (int), its offset from the start of the file and its length (longs)
+//   PALETTE:  every color as ARGB (int), the length of the section gives their count
+//   STROKES:  stroke count, then for every stroke its color index, its width (float), its point count, its first
+//             point and, for the other points, the difference to the previous one
+//   TEXTS:    text count, then for every text its color index, its origin, the length of its UTF-8 bytes and the bytes
+//   JOURNAL:  generation of the AnnotationJournal that continues the file (long), a journal of another one is stale
+// Counts, indexes and lengths are varints, coordinates and differences are zigzag varints, so that the small steps
+// between the points of a stroke take one byte each. Sections of an unknown type are skipped.
+public final class AnnotationFile {
+    public static final String SUFFIX = ".annotations";
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x50414E4E; // "PANN"
+    private static final int PALETTE = 1;
+    private static final int STROKES = 2;
+    private static final int TEXTS = 3;
+    private static final int JOURNAL = 4;
+    private static final int HEADER_SIZE = 20;
+    private static final int SECTION_ENTRY_SIZE = 20;
+
+    private AnnotationFile() {
+    }
+
+    // File keeping the annotations of the photo
+    public static Path sidecarOf(File photo) {
+        return photo.toPath().resolveSibling(photo.getName() + SUFFIX);
+    }
+
+    // Writes the strokes and texts of the model; the file is replaced at once, a reader never sees it half written
+    public static void write(PhotoModel model, Path path) throws IOException {
+        write(encode(model, 0), path);
+    }
+
+    // The content of the file for the model, it can be written later on another thread
+    static ByteBuffer[] encode(PhotoModel model, long journalGeneration) {
+        StrokeStore strokes = model.getStrokes();
+        Map<Color, Integer> paletteIndexes = new HashMap<>();
+        Output palette = new Output(64);
+        Output strokeSection = new Output(16 + strokes.getPointCount() * 2);
+        Output textSection = new Output(64);
+
+        // The last stroke is left out while it is still being drawn
+        int strokeCount = strokes.isStrokeOpen() ? strokes.getStrokeCount() - 1 : strokes.getStrokeCount();
+        strokeSection.putVarint(strokeCount);
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            int start = strokes.getStrokeStart(stroke);
+            int end = strokes.getStrokeEnd(stroke);
+            strokeSection.putVarint(colorIndex(strokes.getColor(stroke), paletteIndexes, palette));
+            strokeSection.putInt(Float.floatToIntBits(strokes.getWidth(stroke)));
+            strokeSection.putVarint(end - start);
+            int previousX = 0;
+            int previousY = 0;
+            for (int point = start; point < end; point++) {
+                strokeSection.putZigzag(strokes.getX(point) - previousX);
+                strokeSection.putZigzag(strokes.getY(point) - previousY);
+                previousX = strokes.getX(point);
+                previousY = strokes.getY(point);
+            }
+        }
+
+        textSection.putVarint(model.getAnnotations().size());
+        for (TextAnnotation text : model.getAnnotations()) {
+            byte[] bytes = text.getText().getBytes(StandardCharsets.UTF_8);
+            textSection.putVarint(colorIndex(text.getColor(), paletteIndexes, palette));
+            textSection.putZigzag(text.getOrigin().x);
+            textSection.putZigzag(text.getOrigin().y);
+            textSection.putVarint(bytes.length);
+            textSection.put(bytes);
+        }
+
+        Output journalSection = new Output(8);
+        journalSection.putInt((int) (journalGeneration >>> 32));
+        journalSection.putInt((int) journalGeneration);
+
+        Output[] sections = {palette, strokeSection, textSection, journalSection};
+        int[] types = {PALETTE, STROKES, TEXTS, JOURNAL};
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sections.length * SECTION_ENTRY_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(model.getImageWidth()).putInt(model.getImageHeight()).putInt(sections.length);
+        long offset = header.capacity();
+        for (int i = 0; i < sections.length; i++) {
+            header.putInt(types[i]).putLong(offset).putLong(sections[i].length);
+            offset += sections[i].length;
+        }
+        header.flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[sections.length + 1];
+        buffers[0] = header;
+        for (int i = 0; i < sections.length; i++) {
+            buffers[i + 1] = ByteBuffer.wrap(sections[i].bytes, 0, sections[i].length);
+        }
+        return buffers;
+    }
+
+    static void write(ByteBuffer[] buffers, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int colorIndex(Color color, Map<Color, Integer> indexes, Output palette) {
+        Integer index = indexes.get(color);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(color, index);
+            palette.putInt(color.getRGB());
+        }
+        return index;
+    }
+
+    // Adds the strokes and texts of the file to the model, in a single change, and returns its journal generation
+    public static long read(Path path, PhotoModel model) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(buffer, model, path.getFileName().toString());
+    }
+
+    // Same as reading a file, with its content already in memory; the name is the one given in the errors
+    static long read(ByteBuffer buffer, PhotoModel model, String name) throws IOException {
+        try {
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(name + " is not an annotation file");
+            }
+            int version = buffer.getInt(4);
+            if (version > VERSION) {
+                throw new IOException(name + " has version " + version + ", only " + VERSION + " is supported");
+            }
+            int sectionCount = buffer.getInt(16);
+            Color[] colors = new Color[0];
+            ByteBuffer strokeSection = null;
+            ByteBuffer textSection = null;
+            long journalGeneration = 0;
+            for (int i = 0; i < sectionCount; i++) {
+                int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+                ByteBuffer section = buffer.slice(Math.toIntExact(buffer.getLong(entry + 4)),
+                        Math.toIntExact(buffer.getLong(entry + 12)));
+                switch (buffer.getInt(entry)) {
+                    case PALETTE:
+                        colors = new Color[section.remaining() / 4];
+                        for (int color = 0; color < colors.length; color++) {
+                            colors[color] = new Color(section.getInt(), true);
+                        }
+                        break;
+                    case STROKES:
+                        strokeSection = section;
+                        break;
+                    case TEXTS:
+                        textSection = section;
+                        break;
+                    case JOURNAL:
+                        journalGeneration = section.getLong();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            Color[] palette = colors;
+            ByteBuffer strokeInput = strokeSection;
+            ByteBuffer textInput = textSection;
+            model.runBatched(() -> {
+                if (strokeInput != null) {
+                    readStrokes(strokeInput, palette, model);
+                }
+                if (textInput != null) {
+                    readTexts(textInput, palette, model);
+                }
+            });
+            return journalGeneration;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException | ArithmeticException e) {
+            throw new IOException(name + " is truncated or corrupted", e);
+        }
+    }
+
+    private static void readStrokes(ByteBuffer input, Color[] palette, PhotoModel model) {
+        int strokeCount = getVarint(input);
+        int[] xs = new int[64];
+        int[] ys = new int[64];
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            Color color = palette[getVarint(input)];
+            float width = Float.intBitsToFloat(input.getInt());
+            // Every point takes at least a byte for each coordinate
+            int pointCount = getCount(input, 2);
+            if (pointCount > xs.length) {
+                xs = Arrays.copyOf(xs, Math.max(pointCount, xs.length * 2));
+                ys = Arrays.copyOf(ys, xs.length);
+            }
+            int x = 0;
+            int y = 0;
+            for (int point = 0; point < pointCount; point++) {
+                x += getZigzag(input);
+                y += getZigzag(input);
+                xs[point] = x;
+                ys[point] = y;
+            }
+            model.addLine(xs, ys, pointCount, color, width);
+        }
+    }
+
+    private static void readTexts(ByteBuffer input, Color[] palette, PhotoModel model) {
+        int textCount = getVarint(input);
+        for (int text = 0; text < textCount; text++) {
+            Color color = palette[getVarint(input)];
+            Point origin = new Point(getZigzag(input), getZigzag(input));
+            byte[] bytes = new byte[getCount(input, 1)];
+            input.get(bytes);
+            model.addAnnotation(new TextAnnotation(new String(bytes, StandardCharsets.UTF_8), origin, color));
+        }
+    }
+
+    static int getVarint(ByteBuffer input) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ArithmeticException("Varint longer than 5 bytes");
+    }
+
+    // Number of items taking at least bytesPerItem each, checked against the bytes left before anything is allocated
+    // for them, so that a corrupted count is reported as a corrupted file rather than running out of memory
+    static int getCount(ByteBuffer input, int bytesPerItem) {
+        int count = getVarint(input);
+        if (count < 0 || count > input.remaining() / bytesPerItem) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    static int getZigzag(ByteBuffer input) {
+        int value = getVarint(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Growable byte array written in the format of the file
+    static class Output {
+        byte[] bytes;
+        int length = 0;
+
+        Output(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            bytes[length++] = (byte) (value >>> 24);
+            bytes[length++] = (byte) (value >>> 16);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void putZigzag(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        void put(byte[] values) {
+            put(values, 0, values.length);
+        }
+
+        void put(byte[] values, int offset, int count) {
+            ensure(count);
+            System.arraycopy(values, offset, bytes, length, count);
+            length += count;
+        }
+    }
+}
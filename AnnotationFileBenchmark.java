@@ -0,0 +1,76 @@
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Measures the save and load throughput of the AnnotationFile format on a heavily annotated photo.
+// Run with: java AnnotationFileBenchmark [points] [pointsPerStroke] [texts]
+public class AnnotationFileBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int pointsPerStroke = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int texts = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        PhotoModel model = buildModel(points, pointsPerStroke, texts);
+        Path path = Files.createTempFile("benchmark", AnnotationFile.SUFFIX);
+        try {
+            // Warm up so that the code is compiled before measuring
+            for (int i = 0; i < 3; i++) {
+                AnnotationFile.write(model, path);
+                AnnotationFile.read(path, new PhotoModel(null, new Dimension(4000, 3000)));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                AnnotationFile.write(model, path);
+            }
+            double saveMillis = (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+            PhotoModel loaded = null;
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                loaded = new PhotoModel(null, new Dimension(4000, 3000));
+                AnnotationFile.read(path, loaded);
+            }
+            double loadMillis = (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+            long size = Files.size(path);
+            System.out.printf("File:  %d bytes, %.2f bytes per point (%d points, %d strokes, %d texts)%n", size,
+                    (double) size / points, loaded.getStrokes().getPointCount(), loaded.getStrokes().getStrokeCount(),
+                    loaded.getAnnotations().size());
+            System.out.printf("Save:  %.1f ms, %.1f M points/s, %.1f MB/s%n", saveMillis,
+                    points / saveMillis / 1000, size / saveMillis / 1000);
+            System.out.printf("Load:  %.1f ms, %.1f M points/s, %.1f MB/s%n", loadMillis,
+                    points / loadMillis / 1000, size / loadMillis / 1000);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // Strokes are random walks with small steps, like the ones drawn with the mouse
+    private static PhotoModel buildModel(int points, int pointsPerStroke, int texts) {
+        Random random = new Random(42);
+        Color[] colors = {Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE};
+        PhotoModel model = new PhotoModel(null, new Dimension(4000, 3000));
+        int[] xs = new int[pointsPerStroke];
+        int[] ys = new int[pointsPerStroke];
+        for (int added = 0; added < points; added += pointsPerStroke) {
+            int count = Math.min(pointsPerStroke, points - added);
+            xs[0] = random.nextInt(4000);
+            ys[0] = random.nextInt(3000);
+            for (int i = 1; i < count; i++) {
+                xs[i] = xs[i - 1] + random.nextInt(9) - 4;
+                ys[i] = ys[i - 1] + random.nextInt(9) - 4;
+            }
+            model.addLine(xs, ys, count, colors[random.nextInt(colors.length)], PhotoModel.DEFAULT_STROKE_WIDTH);
+        }
+        for (int i = 0; i < texts; i++) {
+            model.addAnnotation(new TextAnnotation("Annotation number " + i + " with some text",
+                    new Point(random.nextInt(4000), random.nextInt(3000)), colors[i % colors.length]));
+        }
+        return model;
+    }
+}
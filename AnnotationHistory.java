@@ -0,0 +1,181 @@
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Undo and redo of the changes made to the annotations of a PhotoModel.
+// Nothing of the model is copied: every change is kept as the operation reverting it, so the memory taken is the one
+// of the changes and reverting one costs as much as making it. A line drawn is reverted by removing it, its points are
+// only kept once it has been undone, for redo. A drag or a word typed is a single operation.
+// The changes made between two calls to endEdit are undone together. The oldest edits are forgotten once the history
+// takes more than its byte budget.
+public class AnnotationHistory {
+    public static final long DEFAULT_BYTE_BUDGET = 16 << 20;
+
+    private final PhotoModel model;
+    private final AnnotationOperation.Listener listener = this::operationPerformed;
+    private final Deque<Edit> undoEdits = new ArrayDeque<>();
+    private final Deque<Edit> redoEdits = new ArrayDeque<>();
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+    private Edit currentEdit = null;   // being made, not yet on the undo stack
+    private Edit revertingEdit = null; // reverting the edit being undone or redone
+    private boolean lineOpen = false;
+    private long byteBudget = DEFAULT_BYTE_BUDGET;
+    private long bytes = 0;
+
+    // Operations that revert the changes of an edit, in the order the changes were made
+    private static class Edit {
+        final List<AnnotationOperation> operations = new ArrayList<>();
+        long bytes = 0;
+
+        void add(AnnotationOperation inverse) {
+            int last = operations.size() - 1;
+            AnnotationOperation merged = last >= 0 ? inverse.followedBy(operations.get(last)) : null;
+            if (merged != null) {
+                bytes -= operations.get(last).getSizeInBytes();
+                operations.set(last, merged);
+            } else {
+                operations.add(inverse);
+                merged = inverse;
+            }
+            bytes += merged.getSizeInBytes();
+        }
+    }
+
+    // The changes made to the model from now on can be undone
+    public AnnotationHistory(PhotoModel model) {
+        this.model = model;
+        model.addOperationListener(listener);
+    }
+
+    // Stops recording the changes, the model can outlive the history
+    public void dispose() {
+        model.removeOperationListener(listener);
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        trim();
+    }
+
+    // Memory taken by the edits that can be undone or redone
+    public long getSizeInBytes() {
+        return bytes + (currentEdit == null ? 0 : currentEdit.bytes);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void fireChangeListeners() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : changeListeners) {
+            listener.stateChanged(event);
+        }
+    }
+
+    // The changes made from now on are undone apart from the previous ones
+    public void endEdit() {
+        if (currentEdit != null) {
+            undoEdits.push(currentEdit);
+            bytes += currentEdit.bytes;
+            currentEdit = null;
+            trim();
+        }
+    }
+
+    // Nothing can be undone while a line is being drawn
+    public boolean canUndo() {
+        return !lineOpen && (currentEdit != null || !undoEdits.isEmpty());
+    }
+
+    public boolean canRedo() {
+        return !lineOpen && currentEdit == null && !redoEdits.isEmpty();
+    }
+
+    public void undo() {
+        if (canUndo()) {
+            endEdit();
+            revert(undoEdits.pop(), redoEdits);
+        }
+    }
+
+    public void redo() {
+        if (canRedo()) {
+            revert(redoEdits.pop(), undoEdits);
+        }
+    }
+
+    // Applies the operations of the edit from the last one, the changes they make give the edit reverting it
+    private void revert(Edit edit, Deque<Edit> reverted) {
+        bytes -= edit.bytes;
+        revertingEdit = new Edit();
+        try {
+            model.runBatched(() -> {
+                for (int i = edit.operations.size() - 1; i >= 0; i--) {
+                    edit.operations.get(i).applyTo(model);
+                }
+            });
+            reverted.push(revertingEdit);
+            bytes += revertingEdit.bytes;
+        } finally {
+            revertingEdit = null;
+        }
+        trim();
+        fireChangeListeners();
+    }
+
+    private void operationPerformed(AnnotationOperation operation) {
+        if (revertingEdit != null) {
+            revertingEdit.add(operation.inverse());
+            return;
+        }
+        boolean couldRedo = !redoEdits.isEmpty();
+        while (!redoEdits.isEmpty()) {
+            bytes -= redoEdits.pop().bytes;
+        }
+        boolean couldUndo = canUndo();
+        if (currentEdit == null) {
+            currentEdit = new Edit();
+        }
+        switch (operation.getType()) {
+            case ADD_POINT:
+                if (!lineOpen) {
+                    lineOpen = true;
+                    currentEdit.add(AnnotationOperation.removeLastLine());
+                }
+                break;
+            case REPLACE_LAST_POINT:
+                break;
+            case END_LINE:
+                lineOpen = false;
+                break;
+            default:
+                currentEdit.add(operation.inverse());
+                break;
+        }
+        if (couldRedo || couldUndo != canUndo()) {
+            fireChangeListeners();
+        }
+    }
+
+    // Forgets the oldest edits until the history fits in its budget
+    private void trim() {
+        while (bytes > byteBudget && !undoEdits.isEmpty()) {
+            bytes -= undoEdits.removeLast().bytes;
+        }
+        while (bytes > byteBudget && !redoEdits.isEmpty()) {
+            bytes -= redoEdits.removeLast().bytes;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only log of the operations made on the annotations of a photo, stored next to it with the same name followed
+// by SUFFIX and continuing its AnnotationFile, the snapshot.
+// The operations are encoded on the event dispatch thread as they are made and written by a background thread a few
+// milliseconds later, all the ones made meanwhile in a single write (group commit). The file is forced to the disk at
+// most once per sync interval, an operation may be lost if the machine stops before, never if only the application does.
+// Once the log gets long it is compacted: the annotations are written as a new snapshot and the log starts again empty,
+// so that opening a photo reads at most a snapshot and COMPACT_BYTES of operations.
+// Layout, fixed size numbers are big endian:
+//   header:  magic "PJNL", version (ints), generation (long)
+//   records: length of the operation (varint), the operation, CRC32 of the operation (int)
+// The snapshot records the generation of the log continuing it, a log of another generation is left over from a
+// compaction stopped half way and is ignored. Reading stops at the first record that is truncated, does not match its
+// checksum or cannot be decoded, the next operations are written over it.
+// Closing writes the snapshot in background: a journal of the photo opened or resumed later, and the application
+// exiting, wait for it.
+public final class AnnotationJournal {
+    public static final String SUFFIX = ".journal";
+    public static final int VERSION = 1;
+    public static final long DEFAULT_COMMIT_DELAY_MS = 50;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+    // Size of the log above which it is compacted into a new snapshot
+    public static final long COMPACT_BYTES = 1 << 20;
+    private static final int MAGIC = 0x504A4E4C; // "PJNL"
+    private static final int HEADER_SIZE = 16;
+
+    // Shared by the photos, the writes of a photo are made in the order they were submitted
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "annotation-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Last close of the photos, by log, until a journal of the photo is opened again
+    private static final Map<Path, Future<?>> closing = new ConcurrentHashMap<>();
+
+    private final PhotoModel model;
+    private final Path snapshotPath;
+    private final Path path;
+    private final long commitDelayMillis;
+    private final long syncIntervalMillis;
+    private final AnnotationOperation.Listener listener = this::record;
+    private final AnnotationFile.Output encoded = new AnnotationFile.Output(64);
+    private final CRC32 crc = new CRC32();
+    private long length;                  // of the log once the pending operations are written
+    private Future<?> closed;             // last close, done once its files are written
+
+    // Written on the event dispatch thread, taken by the writer
+    private final Object lock = new Object();
+    private AnnotationFile.Output pending = new AnnotationFile.Output(256);
+    private long pendingGeneration;
+    private boolean commitScheduled = false;
+
+    // Used by the writer only
+    private FileChannel channel;
+    private long fileGeneration;
+    private long validLength;             // of the log on disk, a torn record after it is overwritten
+    private long lastSync = 0;
+    private boolean syncScheduled = false;
+    private IOException failure;
+
+    private AnnotationJournal(File photo, PhotoModel model, long commitDelayMillis, long syncIntervalMillis) {
+        this.model = model;
+        this.snapshotPath = AnnotationFile.sidecarOf(photo);
+        this.path = journalOf(photo);
+        this.commitDelayMillis = commitDelayMillis;
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    // File keeping the operations made on the photo since its snapshot
+    public static Path journalOf(File photo) {
+        return photo.toPath().resolveSibling(photo.getName() + SUFFIX);
+    }
+
+    public static AnnotationJournal open(File photo, PhotoModel model) throws IOException {
+        return open(photo, model, DEFAULT_COMMIT_DELAY_MS, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    // Adds the annotations saved for the photo to the model, in a single change, and records the next ones.
+    // The log is forced to the disk every syncIntervalMillis, after every commit if 0, only when compacted if negative
+    public static AnnotationJournal open(File photo, PhotoModel model, long commitDelayMillis, long syncIntervalMillis)
+            throws IOException {
+        AnnotationJournal journal = new AnnotationJournal(photo, model, commitDelayMillis, syncIntervalMillis);
+        await(closing.remove(journal.path));
+        journal.read();
+        journal.resume();
+        return journal;
+    }
+
+    public PhotoModel getModel() {
+        return model;
+    }
+
+    private void read() throws IOException {
+        long generation = Files.exists(snapshotPath) ? AnnotationFile.read(snapshotPath, model) : 0;
+        fileGeneration = generation;
+        pendingGeneration = generation;
+        validLength = 0;
+        if (!Files.exists(path)) {
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) > VERSION
+                || buffer.getLong(8) != generation) {
+            return;
+        }
+        buffer.position(HEADER_SIZE);
+        validLength = HEADER_SIZE;
+        model.runBatched(() -> {
+            try {
+                while (buffer.hasRemaining()) {
+                    int recordLength = AnnotationFile.getVarint(buffer);
+                    ByteBuffer operation = buffer.slice(buffer.position(), recordLength);
+                    buffer.position(buffer.position() + recordLength);
+                    crc.reset();
+                    crc.update(operation.duplicate());
+                    if ((int) crc.getValue() != buffer.getInt()) {
+                        break;
+                    }
+                    decode(operation).applyTo(model);
+                    validLength = buffer.position();
+                }
+            } catch (RuntimeException e) {
+                // A record written only in part, the operations before it are kept
+            }
+        });
+    }
+
+    // Records the operations made on the model again, after close; the files have to be the ones written by close
+    public void resume() {
+        await(closed);
+        length = Math.max(validLength, HEADER_SIZE);
+        model.addOperationListener(listener);
+        // A line left open by a stop while it was drawn is closed, the next points would continue it otherwise
+        model.endLine();
+    }
+
+    // Stops recording and writes the annotations as a snapshot in background, a photo without annotations has no
+    // files. onError is called on the event dispatch thread with the error of a write made since the last close
+    public void close(Consumer<IOException> onError) {
+        model.removeOperationListener(listener);
+        model.endLine();
+        if (model.isEmpty()) {
+            // Without a snapshot the generation starts again from 0
+            synchronized (lock) {
+                pending.length = 0;
+                pendingGeneration = 0;
+            }
+            writer.execute(() -> {
+                try {
+                    closeChannel();
+                    Files.deleteIfExists(path);
+                    Files.deleteIfExists(snapshotPath);
+                    fileGeneration = 0;
+                    validLength = 0;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            });
+        } else if (length > HEADER_SIZE || !Files.exists(snapshotPath)) {
+            compact();
+        } else {
+            writer.execute(() -> {
+                try {
+                    closeChannel();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            });
+        }
+        // The writer runs the tasks in order, this one once the files are written
+        closed = writer.submit(() -> {
+            IOException error = failure;
+            failure = null;
+            if (error != null) {
+                SwingUtilities.invokeLater(() -> onError.accept(error));
+            }
+        });
+        closing.values().removeIf(Future::isDone);
+        closing.put(path, closed);
+    }
+
+    // Waits until the annotations of the photos closed are on the disk, before the application exits
+    public static void awaitClosed() {
+        for (Future<?> close : closing.values()) {
+            await(close);
+        }
+    }
+
+    private static void await(Future<?> close) {
+        if (close == null) {
+            return;
+        }
+        try {
+            close.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The close reports its errors itself
+        }
+    }
+
+    private void record(AnnotationOperation operation) {
+        encoded.length = 0;
+        encode(operation, encoded);
+        crc.reset();
+        crc.update(encoded.bytes, 0, encoded.length);
+        synchronized (lock) {
+            int start = pending.length;
+            pending.putVarint(encoded.length);
+            pending.put(encoded.bytes, 0, encoded.length);
+            pending.putInt((int) crc.getValue());
+            length += pending.length - start;
+            if (!commitScheduled) {
+                commitScheduled = true;
+                writer.schedule(this::commit, commitDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        // A stroke has to be closed to be in a snapshot, the operations made meanwhile stay in the log
+        if (length > COMPACT_BYTES && !model.getStrokes().isStrokeOpen()) {
+            compact();
+        }
+    }
+
+    // Runs on the writer: appends the operations recorded since the last commit
+    private void commit() {
+        AnnotationFile.Output operations;
+        synchronized (lock) {
+            commitScheduled = false;
+            // Operations of the next generation wait until the compaction has started its log
+            if (pending.length == 0 || pendingGeneration != fileGeneration) {
+                return;
+            }
+            operations = pending;
+            pending = new AnnotationFile.Output(256);
+        }
+        if (failure != null) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                openChannel();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(operations.bytes, 0, operations.length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            validLength += operations.length;
+            sync(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    // Runs on the writer: forces the log to the disk if the last sync is old enough, later otherwise
+    private void sync(boolean scheduled) throws IOException {
+        if (scheduled) {
+            syncScheduled = false;
+        }
+        if (channel == null || syncIntervalMillis < 0) {
+            return;
+        }
+        long now = System.nanoTime() / 1_000_000;
+        if (now - lastSync >= syncIntervalMillis) {
+            channel.force(false);
+            lastSync = now;
+        } else if (!syncScheduled) {
+            syncScheduled = true;
+            writer.schedule(() -> {
+                try {
+                    sync(true);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }, lastSync + syncIntervalMillis - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the writer: opens the log to append to it, creating it for the current generation if needed
+    private void openChannel() throws IOException {
+        if (validLength < HEADER_SIZE) {
+            writeHeader(fileGeneration);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Replaces the log by an empty one of the generation
+    private void writeHeader(long generation) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                output.write(header);
+            }
+            output.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        validLength = HEADER_SIZE;
+    }
+
+    // Encodes the annotations as the snapshot of the next generation, on the event dispatch thread since the model is
+    // not thread safe, and writes it in background. The snapshot is written before the new log, if the application
+    // stops in between the old log is ignored since its generation is not the one of the snapshot
+    private void compact() {
+        long generation;
+        synchronized (lock) {
+            generation = pendingGeneration + 1;
+            pendingGeneration = generation;
+            pending.length = 0;
+            length = HEADER_SIZE;
+        }
+        ByteBuffer[] snapshot = AnnotationFile.encode(model, generation);
+        writer.execute(() -> {
+            if (failure != null) {
+                return;
+            }
+            try {
+                closeChannel();
+                AnnotationFile.write(snapshot, snapshotPath);
+                writeHeader(generation);
+                fileGeneration = generation;
+            } catch (IOException e) {
+                failure = e;
+                return;
+            }
+            // The operations made since the snapshot was encoded
+            commit();
+        });
+    }
+
+    private static void encode(AnnotationOperation operation, AnnotationFile.Output output) {
+        output.putVarint(operation.getType().ordinal());
+        switch (operation.getType()) {
+            case ADD_POINT:
+                output.putZigzag(operation.getX());
+                output.putZigzag(operation.getY());
+                output.putInt(operation.getColor().getRGB());
+                output.putInt(Float.floatToIntBits(operation.getWidth()));
+                break;
+            case REPLACE_LAST_POINT:
+                output.putZigzag(operation.getOldX());
+                output.putZigzag(operation.getOldY());
+                output.putZigzag(operation.getX());
+                output.putZigzag(operation.getY());
+                break;
+            case END_LINE:
+            case REMOVE_LAST_LINE:
+            case REMOVE_LAST_TEXT:
+                // Replaying needs only the type, the model knows what it removes
+                break;
+            case ADD_LINE:
+                output.putInt(operation.getColor().getRGB());
+                output.putInt(Float.floatToIntBits(operation.getWidth()));
+                output.putVarint(operation.getPointCount());
+                int previousX = 0;
+                int previousY = 0;
+                for (int point = 0; point < operation.getPointCount(); point++) {
+                    output.putZigzag(operation.getPointX(point) - previousX);
+                    output.putZigzag(operation.getPointY(point) - previousY);
+                    previousX = operation.getPointX(point);
+                    previousY = operation.getPointY(point);
+                }
+                break;
+            case TRANSLATE_LINE:
+                output.putVarint(operation.getIndex());
+                output.putZigzag(operation.getX());
+                output.putZigzag(operation.getY());
+                break;
+            case SET_LINE_COLOR:
+            case SET_TEXT_COLOR:
+                output.putVarint(operation.getIndex());
+                output.putInt(operation.getOldColor().getRGB());
+                output.putInt(operation.getColor().getRGB());
+                break;
+            case ADD_TEXT:
+                output.putZigzag(operation.getX());
+                output.putZigzag(operation.getY());
+                output.putInt(operation.getColor().getRGB());
+                putString(operation.getInserted(), output);
+                break;
+            case SPLICE_TEXT:
+                output.putVarint(operation.getIndex());
+                output.putVarint(operation.getPosition());
+                putString(operation.getRemoved(), output);
+                putString(operation.getInserted(), output);
+                break;
+            case MOVE_TEXT:
+                output.putVarint(operation.getIndex());
+                output.putZigzag(operation.getOldX());
+                output.putZigzag(operation.getOldY());
+                output.putZigzag(operation.getX());
+                output.putZigzag(operation.getY());
+                break;
+        }
+    }
+
+    private static AnnotationOperation decode(ByteBuffer input) {
+        AnnotationOperation.Type type = AnnotationOperation.Type.values()[AnnotationFile.getVarint(input)];
+        switch (type) {
+            case ADD_POINT:
+                return AnnotationOperation.addPoint(AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input),
+                        new Color(input.getInt(), true), Float.intBitsToFloat(input.getInt()));
+            case REPLACE_LAST_POINT:
+                return AnnotationOperation.replaceLastPoint(AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input),
+                        AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input));
+            case END_LINE:
+                return AnnotationOperation.endLine();
+            case ADD_LINE: {
+                Color color = new Color(input.getInt(), true);
+                float width = Float.intBitsToFloat(input.getInt());
+                // Checked against the record, as the operations of a bad build or a corrupted log end the valid log
+                int count = AnnotationFile.getCount(input, 2);
+                int[] xs = new int[count];
+                int[] ys = new int[count];
+                int x = 0;
+                int y = 0;
+                for (int point = 0; point < count; point++) {
+                    x += AnnotationFile.getZigzag(input);
+                    y += AnnotationFile.getZigzag(input);
+                    xs[point] = x;
+                    ys[point] = y;
+                }
+                return AnnotationOperation.addLine(xs, ys, count, color, width);
+            }
+            case TRANSLATE_LINE:
+                return AnnotationOperation.translateLine(AnnotationFile.getVarint(input), AnnotationFile.getZigzag(input),
+                        AnnotationFile.getZigzag(input));
+            case SET_LINE_COLOR:
+                return AnnotationOperation.setLineColor(AnnotationFile.getVarint(input), new Color(input.getInt(), true),
+                        new Color(input.getInt(), true));
+            case ADD_TEXT:
+                return AnnotationOperation.addText(AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input),
+                        new Color(input.getInt(), true), getString(input));
+            case SPLICE_TEXT:
+                return AnnotationOperation.spliceText(AnnotationFile.getVarint(input), AnnotationFile.getVarint(input),
+                        getString(input), getString(input));
+            case MOVE_TEXT:
+                return AnnotationOperation.moveText(AnnotationFile.getVarint(input), AnnotationFile.getZigzag(input),
+                        AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input), AnnotationFile.getZigzag(input));
+            case SET_TEXT_COLOR:
+                return AnnotationOperation.setTextColor(AnnotationFile.getVarint(input), new Color(input.getInt(), true),
+                        new Color(input.getInt(), true));
+            case REMOVE_LAST_LINE:
+                return AnnotationOperation.removeLastLine();
+            case REMOVE_LAST_TEXT:
+                return AnnotationOperation.removeLastText();
+        }
+        throw new AssertionError("Unknown operation " + type);
+    }
+
+    private static void putString(String value, AnnotationFile.Output output) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.putVarint(bytes.length);
+        output.put(bytes);
+    }
+
+    private static String getString(ByteBuffer input) {
+        byte[] bytes = new byte[AnnotationFile.getCount(input, 1)];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,292 @@
+import java.awt.*;
+import java.util.Arrays;
+
+// A change made to the annotations of a PhotoModel, as reported to its operation listeners.
+// Applying the operations in the order they were reported to a model in the state the first one was made on gives the
+// same annotations. The operations that replace or remove a value keep the old one as well, so that they can be
+// inverted; the ones that remove the last line or text are also made without it, the model gives it when applied.
+public final class AnnotationOperation {
+    public enum Type {
+        ADD_POINT, REPLACE_LAST_POINT, END_LINE, ADD_LINE, TRANSLATE_LINE, SET_LINE_COLOR,
+        ADD_TEXT, SPLICE_TEXT, MOVE_TEXT, SET_TEXT_COLOR, REMOVE_LAST_LINE, REMOVE_LAST_TEXT
+    }
+
+    public interface Listener {
+        void operationPerformed(AnnotationOperation operation);
+    }
+
+    private final Type type;
+    private final int index;       // line or text changed
+    private final int x, y;        // new point, translation or origin
+    private final int oldX, oldY;
+    private final Color color;
+    private final Color oldColor;
+    private final float width;
+    private final int position;    // of a splice in the text
+    private final String removed;
+    private final String inserted; // also the text of a new annotation
+    private final int[] xs, ys;    // points of a whole line
+
+    private AnnotationOperation(Type type, int index, int x, int y, int oldX, int oldY, Color color, Color oldColor,
+                                float width, int position, String removed, String inserted, int[] xs, int[] ys) {
+        this.type = type;
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.oldX = oldX;
+        this.oldY = oldY;
+        this.color = color;
+        this.oldColor = oldColor;
+        this.width = width;
+        this.position = position;
+        this.removed = removed;
+        this.inserted = inserted;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public static AnnotationOperation addPoint(int x, int y, Color color, float width) {
+        return new AnnotationOperation(Type.ADD_POINT, PhotoUI.NOT_SET, x, y, 0, 0, color, null, width, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation replaceLastPoint(int oldX, int oldY, int x, int y) {
+        return new AnnotationOperation(Type.REPLACE_LAST_POINT, PhotoUI.NOT_SET, x, y, oldX, oldY, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation endLine() {
+        return new AnnotationOperation(Type.END_LINE, PhotoUI.NOT_SET, 0, 0, 0, 0, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation addLine(int[] xs, int[] ys, int count, Color color, float width) {
+        return new AnnotationOperation(Type.ADD_LINE, PhotoUI.NOT_SET, 0, 0, 0, 0, color, null, width, 0, null, null,
+                Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+    }
+
+    public static AnnotationOperation translateLine(int index, int dx, int dy) {
+        return new AnnotationOperation(Type.TRANSLATE_LINE, index, dx, dy, 0, 0, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation setLineColor(int index, Color oldColor, Color color) {
+        return new AnnotationOperation(Type.SET_LINE_COLOR, index, 0, 0, 0, 0, color, oldColor, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation addText(int x, int y, Color color, String text) {
+        return new AnnotationOperation(Type.ADD_TEXT, PhotoUI.NOT_SET, x, y, 0, 0, color, null, 0, 0, null, text, null, null);
+    }
+
+    public static AnnotationOperation spliceText(int index, int position, String removed, String inserted) {
+        return new AnnotationOperation(Type.SPLICE_TEXT, index, 0, 0, 0, 0, null, null, 0, position, removed, inserted, null, null);
+    }
+
+    public static AnnotationOperation moveText(int index, int oldX, int oldY, int x, int y) {
+        return new AnnotationOperation(Type.MOVE_TEXT, index, x, y, oldX, oldY, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation setTextColor(int index, Color oldColor, Color color) {
+        return new AnnotationOperation(Type.SET_TEXT_COLOR, index, 0, 0, 0, 0, color, oldColor, 0, 0, null, null, null, null);
+    }
+
+    // Lines and texts can only be removed from the end, the operations made on the others keep their index
+    public static AnnotationOperation removeLastLine() {
+        return new AnnotationOperation(Type.REMOVE_LAST_LINE, PhotoUI.NOT_SET, 0, 0, 0, 0, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation removeLastLine(int[] xs, int[] ys, Color color, float width) {
+        return new AnnotationOperation(Type.REMOVE_LAST_LINE, PhotoUI.NOT_SET, 0, 0, 0, 0, color, null, width, 0, null, null, xs, ys);
+    }
+
+    public static AnnotationOperation removeLastText() {
+        return new AnnotationOperation(Type.REMOVE_LAST_TEXT, PhotoUI.NOT_SET, 0, 0, 0, 0, null, null, 0, 0, null, null, null, null);
+    }
+
+    public static AnnotationOperation removeLastText(int x, int y, Color color, String text) {
+        return new AnnotationOperation(Type.REMOVE_LAST_TEXT, PhotoUI.NOT_SET, x, y, 0, 0, color, null, 0, 0, text, null, null, null);
+    }
+
+    // The same operation made on the text or line at the index, a TextAnnotation does not know its own index
+    public AnnotationOperation withIndex(int index) {
+        return new AnnotationOperation(type, index, x, y, oldX, oldY, color, oldColor, width, position, removed, inserted, xs, ys);
+    }
+
+    // Makes the operation again on the model
+    public void applyTo(PhotoModel model) {
+        switch (type) {
+            case ADD_POINT:
+                model.addPoint(new Point(x, y), color, width);
+                break;
+            case REPLACE_LAST_POINT:
+                model.replaceLastPoint(new Point(x, y));
+                break;
+            case END_LINE:
+                model.endLine();
+                break;
+            case ADD_LINE:
+                model.addLine(xs, ys, xs.length, color, width);
+                break;
+            case TRANSLATE_LINE:
+                model.translateLine(index, x, y);
+                break;
+            case SET_LINE_COLOR:
+                model.setColorOfLineAt(index, color);
+                break;
+            case ADD_TEXT:
+                model.addAnnotation(new TextAnnotation(inserted, new Point(x, y), color));
+                break;
+            case SPLICE_TEXT:
+                model.getAnnotations().get(index).splice(position, position + removed.length(), inserted);
+                break;
+            case MOVE_TEXT:
+                model.getAnnotations().get(index).setOrigin(new Point(x, y));
+                break;
+            case SET_TEXT_COLOR:
+                model.updateColorOfTextAt(index, color);
+                break;
+            case REMOVE_LAST_LINE:
+                model.removeLastLine();
+                break;
+            case REMOVE_LAST_TEXT:
+                model.removeLastAnnotation();
+                break;
+        }
+    }
+
+    // The operation reverting this one when applied right after it. The points of a line being drawn are reverted
+    // together by removing the whole line, they cannot be one by one
+    public AnnotationOperation inverse() {
+        switch (type) {
+            case ADD_POINT:
+            case END_LINE:
+                throw new IllegalStateException(type + " cannot be inverted alone, the line it belongs to is removed");
+            case REPLACE_LAST_POINT:
+                return replaceLastPoint(x, y, oldX, oldY);
+            case ADD_LINE:
+                return removeLastLine();
+            case REMOVE_LAST_LINE:
+                if (xs == null) {
+                    throw new IllegalStateException("The removed line is not known");
+                }
+                return addLine(xs, ys, xs.length, color, width);
+            case TRANSLATE_LINE:
+                return translateLine(index, -x, -y);
+            case SET_LINE_COLOR:
+                return setLineColor(index, color, oldColor);
+            case ADD_TEXT:
+                return removeLastText();
+            case REMOVE_LAST_TEXT:
+                if (removed == null) {
+                    throw new IllegalStateException("The removed text is not known");
+                }
+                return addText(x, y, color, removed);
+            case SPLICE_TEXT:
+                return spliceText(index, position, inserted, removed);
+            case MOVE_TEXT:
+                return moveText(index, x, y, oldX, oldY);
+            case SET_TEXT_COLOR:
+                return setTextColor(index, color, oldColor);
+        }
+        throw new AssertionError("Unknown operation " + type);
+    }
+
+    // The operation doing this one and then the next, or null if they cannot be made a single one.
+    // Used to keep a drag or a word typed as one operation
+    public AnnotationOperation followedBy(AnnotationOperation next) {
+        if (next.type != type || next.index != index) {
+            return null;
+        }
+        switch (type) {
+            case TRANSLATE_LINE:
+                return translateLine(index, x + next.x, y + next.y);
+            case MOVE_TEXT:
+                return moveText(index, oldX, oldY, next.x, next.y);
+            case SPLICE_TEXT:
+                // Chars inserted, or deleted, one after the other
+                if (removed.isEmpty() && next.removed.isEmpty() && next.position == position + inserted.length()) {
+                    return spliceText(index, position, "", inserted + next.inserted);
+                }
+                if (inserted.isEmpty() && next.inserted.isEmpty() && next.position == position) {
+                    return spliceText(index, position, removed + next.removed, "");
+                }
+                if (inserted.isEmpty() && next.inserted.isEmpty() && next.position + next.removed.length() == position) {
+                    return spliceText(index, next.position, next.removed + removed, "");
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    // Approximate memory taken by the operation
+    public long getSizeInBytes() {
+        long size = 64;
+        if (xs != null) {
+            size += 2L * (16 + 4L * xs.length);
+        }
+        if (removed != null) {
+            size += 40 + removed.length();
+        }
+        if (inserted != null) {
+            size += 40 + inserted.length();
+        }
+        return size;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getOldX() {
+        return oldX;
+    }
+
+    public int getOldY() {
+        return oldY;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public Color getOldColor() {
+        return oldColor;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getRemoved() {
+        return removed;
+    }
+
+    public String getInserted() {
+        return inserted;
+    }
+
+    public int getPointCount() {
+        return xs == null ? 0 : xs.length;
+    }
+
+    public int getPointX(int point) {
+        return xs[point];
+    }
+
+    public int getPointY(int point) {
+        return ys[point];
+    }
+}
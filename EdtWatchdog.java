@@ -0,0 +1,130 @@
+import javax.swing.*;
+import java.util.function.Consumer;
+
+// Checks that the event dispatch thread keeps up: a heartbeat is posted to it every few milliseconds, and when one
+// waits for longer than the threshold the stack of the thread is captured while it is still blocked. The stall is
+// given to the listener on the event dispatch thread once it ends, with its whole duration.
+public class EdtWatchdog {
+    public static final long DEFAULT_THRESHOLD_MS = 250;
+
+    // A time the event dispatch thread did not handle any event, with what it was doing
+    public static final class Stall {
+        private final long millis;
+        private final StackTraceElement[] stack;
+
+        Stall(long millis, StackTraceElement[] stack) {
+            this.millis = millis;
+            this.stack = stack;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        // Stack of the thread when the stall went over the threshold
+        public StackTraceElement[] getStack() {
+            return stack.clone();
+        }
+
+        // First frame of the application in the stack, the one most likely to be the cause, or the top one
+        public String getCulprit() {
+            for (StackTraceElement frame : stack) {
+                String name = frame.getClassName();
+                if (!name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.")
+                        && !name.startsWith("jdk.")) {
+                    return frame.toString();
+                }
+            }
+            return stack.length > 0 ? stack[0].toString() : "unknown";
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("Event dispatch thread blocked for " + millis + " ms");
+            for (StackTraceElement frame : stack) {
+                text.append(System.lineSeparator()).append("\tat ").append(frame);
+            }
+            return text.toString();
+        }
+    }
+
+    private final long thresholdNanos;
+    private final long pollMillis;
+    private final Consumer<Stall> listener;
+    private final Thread watcher;
+    private final Object lock = new Object();
+    // Time the heartbeat waiting for the event dispatch thread was posted, 0 when none is waiting
+    private long heartbeatPosted = 0;
+    private StackTraceElement[] stack;
+    private Thread eventThread;
+
+    public EdtWatchdog(long thresholdMillis, Consumer<Stall> listener) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.pollMillis = Math.max(10, thresholdMillis / 4);
+        this.listener = listener;
+        watcher = new Thread(this::watch, "edt-watchdog");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void close() {
+        watcher.interrupt();
+    }
+
+    // Runs on the watchdog thread
+    private void watch() {
+        while (true) {
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            Thread blocked = null;
+            long posted;
+            synchronized (lock) {
+                posted = heartbeatPosted;
+                if (posted == 0) {
+                    heartbeatPosted = now;
+                } else if (stack == null && now - posted > thresholdNanos) {
+                    blocked = eventThread;
+                }
+            }
+            if (posted == 0) {
+                SwingUtilities.invokeLater(this::heartbeat);
+            } else if (blocked != null) {
+                StackTraceElement[] captured = blocked.getStackTrace();
+                synchronized (lock) {
+                    // The thread can have caught up while its stack was read
+                    if (heartbeatPosted == posted) {
+                        stack = captured;
+                    }
+                }
+            }
+        }
+    }
+
+    // Runs on the event dispatch thread
+    private void heartbeat() {
+        long nanos;
+        StackTraceElement[] captured;
+        synchronized (lock) {
+            // The thread is replaced after an uncaught exception, the current one is the one to watch
+            eventThread = Thread.currentThread();
+            nanos = System.nanoTime() - heartbeatPosted;
+            captured = stack;
+            stack = null;
+            heartbeatPosted = 0;
+        }
+        if (captured != null) {
+            Stall stall = new Stall(nanos / 1_000_000, captured);
+            PhotoEvents.Stall event = new PhotoEvents.Stall();
+            if (event.shouldCommit()) {
+                event.stall = stall.getMillis();
+                event.culprit = stall.getCulprit();
+                event.commit();
+            }
+            listener.accept(stall);
+        }
+    }
+}
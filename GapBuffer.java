@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+// Text storage with a gap at the editing position, inserts and deletes next to the gap are O(1) amortized.
+// Moving the editing position only moves the chars between the old and the new position.
+public class GapBuffer implements CharSequence {
+    private static final int MIN_GAP = 16;
+
+    private char[] buffer;
+    private int gapStart;
+    private int gapEnd;
+    private String cachedText;
+
+    public GapBuffer() {
+        this("");
+    }
+
+    public GapBuffer(CharSequence text) {
+        buffer = new char[text.length() + MIN_GAP];
+        for (int i = 0; i < text.length(); i++) {
+            buffer[i] = text.charAt(i);
+        }
+        gapStart = text.length();
+        gapEnd = buffer.length;
+    }
+
+    @Override
+    public int length() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of length " + length());
+        }
+        return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    public void insert(int position, CharSequence text) {
+        moveGap(position);
+        ensureGap(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[gapStart++] = text.charAt(i);
+        }
+        cachedText = null;
+    }
+
+    public void insert(int position, char c) {
+        moveGap(position);
+        ensureGap(1);
+        buffer[gapStart++] = c;
+        cachedText = null;
+    }
+
+    public void delete(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of length " + length());
+        }
+        moveGap(end);
+        gapStart = start;
+        cachedText = null;
+    }
+
+    public void replace(CharSequence text) {
+        gapStart = 0;
+        gapEnd = buffer.length;
+        insert(0, text);
+    }
+
+    // The string is built once and reused until the next change
+    @Override
+    public String toString() {
+        if (cachedText == null) {
+            StringBuilder builder = new StringBuilder(length());
+            builder.append(buffer, 0, gapStart);
+            builder.append(buffer, gapEnd, buffer.length - gapEnd);
+            cachedText = builder.toString();
+        }
+        return cachedText;
+    }
+
+    private void moveGap(int position) {
+        if (position < 0 || position > length()) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of length " + length());
+        }
+        if (position < gapStart) {
+            int count = gapStart - position;
+            System.arraycopy(buffer, position, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (position > gapStart) {
+            int count = position - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int size) {
+        if (gapEnd - gapStart >= size) {
+            return;
+        }
+        // The buffer at least doubles so that a sequence of inserts stays O(1) amortized
+        int newLength = Math.max(buffer.length * 2, length() + size + MIN_GAP);
+        char[] newBuffer = Arrays.copyOf(buffer, newLength);
+        int tail = buffer.length - gapEnd;
+        System.arraycopy(buffer, gapEnd, newBuffer, newLength - tail, tail);
+        gapEnd = newLength - tail;
+        buffer = newBuffer;
+    }
+}
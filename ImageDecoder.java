@@ -0,0 +1,127 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+
+// Helpers to decode only the pixels that are needed: a subsampled version of the whole image, or a region of it.
+public final class ImageDecoder {
+
+    private ImageDecoder() {
+    }
+
+    // Opens a reader on the file, it must be released with close
+    public static ImageReader open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + file.getName());
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    public static void close(ImageReader reader) {
+        Object input = reader.getInput();
+        reader.dispose();
+        if (input instanceof ImageInputStream) {
+            try {
+                ((ImageInputStream) input).close();
+            } catch (IOException ignored) {
+                // Nothing left to read from it
+            }
+        }
+    }
+
+    // Makes the reader stop decoding once the condition is true. Readers such as the JPEG one only accept abort from the
+    // thread that is decoding, so the condition is checked there, at every progress step
+    public static void abortWhen(ImageReader reader, BooleanSupplier condition) {
+        reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                if (condition.getAsBoolean()) {
+                    source.abort();
+                }
+            }
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+                imageProgress(source, 0);
+            }
+
+            @Override
+            public void imageComplete(ImageReader source) {
+            }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) {
+            }
+
+            @Override
+            public void sequenceComplete(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) {
+            }
+
+            @Override
+            public void readAborted(ImageReader source) {
+            }
+        });
+    }
+
+    // Size of the image read from its header, without decoding the pixels
+    public static Dimension readSize(ImageReader reader) throws IOException {
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+    }
+
+    // Largest subsampling that keeps the image at least as big as the target size
+    public static int subsamplingFor(Dimension imageSize, Dimension targetSize) {
+        int horizontal = imageSize.width / Math.max(1, targetSize.width);
+        int vertical = imageSize.height / Math.max(1, targetSize.height);
+        return Math.max(1, Math.min(horizontal, vertical));
+    }
+
+    // Decodes the region of the image (null for all of it) keeping one pixel every subsampling pixels
+    public static BufferedImage read(ImageReader reader, Rectangle region, int subsampling) throws IOException {
+        PhotoEvents.Decode event = new PhotoEvents.Decode();
+        event.begin();
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+            param.setSourceRegion(region);
+        }
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        BufferedImage image = reader.read(0, param);
+        if (event.shouldCommit()) {
+            event.format = reader.getFormatName();
+            event.region = region != null;
+            event.subsampling = subsampling;
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            event.commit();
+        }
+        return image;
+    }
+}
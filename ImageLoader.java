@@ -0,0 +1,371 @@
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+// Decodes images on a background thread so that the Swing event thread is never blocked.
+// Only one image is decoded at a time: starting a new load cancels the one still running.
+// The image being decoded is handed out while its rows or passes arrive, so it can be shown before it is complete.
+// Other images, such as the neighbours of the one shown, can be prefetched on a second thread with a lower priority.
+// The decoded images are kept in memory, least recently used evicted first, up to a budget of pixel bytes: loading
+// one of them again calls back right away.
+// All the callbacks are invoked on the event thread, and the loader must only be used from it.
+public class ImageLoader {
+    // Partial images are delivered at most this often, the first one as soon as some pixels are decoded
+    public static final long UPDATE_INTERVAL_MS = 250;
+    public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-prefetcher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private LoadTask currentTask;
+    private final Map<File, LoadTask> prefetchTasks = new HashMap<>();
+    private final Map<File, Decoded> decodedImages = new LinkedHashMap<>(16, 0.75f, true);
+    private final long cacheBudgetBytes;
+    private long cacheUsedBytes = 0;
+    // Images are decoded with the lowest resolution that still covers this size
+    private Dimension targetSize = defaultTargetSize();
+
+    public interface Callback {
+        void onProgress(int percent);
+
+        // Called with the same image every time more of it is decoded, the rest of it is still blank
+        void onPartialImage(BufferedImage image, Dimension imageSize);
+
+        // The image can be smaller than imageSize, the size of the photo in the file, when it was subsampled
+        void onLoaded(BufferedImage image, Dimension imageSize);
+
+        void onError(Exception e);
+    }
+
+    private static class Decoded {
+        final BufferedImage image;
+        final Dimension imageSize;
+
+        Decoded(BufferedImage image, Dimension imageSize) {
+            this.image = image;
+            this.imageSize = imageSize;
+        }
+    }
+
+    public ImageLoader() {
+        this(DEFAULT_CACHE_BYTES);
+    }
+
+    public ImageLoader(long cacheBudgetBytes) {
+        this.cacheBudgetBytes = cacheBudgetBytes;
+    }
+
+    // Calls onLoaded before returning if the image is already decoded
+    public void load(File file, Callback callback) {
+        cancel();
+        Decoded decoded = decodedImages.get(file);
+        if (decoded != null) {
+            callback.onLoaded(decoded.image, decoded.imageSize);
+            return;
+        }
+        // The prefetch is not waited for, the file is decoded again with progress reported
+        LoadTask prefetch = prefetchTasks.remove(file);
+        if (prefetch != null) {
+            prefetch.cancel();
+        }
+        currentTask = new LoadTask(file, new Callback() {
+            @Override
+            public void onProgress(int percent) {
+                callback.onProgress(percent);
+            }
+
+            @Override
+            public void onPartialImage(BufferedImage image, Dimension imageSize) {
+                callback.onPartialImage(image, imageSize);
+            }
+
+            @Override
+            public void onLoaded(BufferedImage image, Dimension imageSize) {
+                put(file, image, imageSize);
+                callback.onLoaded(image, imageSize);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        }, targetSize, true);
+        executor.execute(currentTask);
+    }
+
+    public boolean isDecoded(File file) {
+        return decodedImages.containsKey(file);
+    }
+
+    // Decodes the files in the background, in the order given, unless they are already decoded.
+    // The prefetches of files that are not in the list anymore are cancelled
+    public void prefetch(List<File> files) {
+        Iterator<Map.Entry<File, LoadTask>> iterator = prefetchTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, LoadTask> entry = iterator.next();
+            if (!files.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+        for (File file : files) {
+            // Looking the image up also keeps it from being the next one evicted
+            if (decodedImages.get(file) != null || prefetchTasks.containsKey(file)) {
+                continue;
+            }
+            LoadTask task = new LoadTask(file, new Callback() {
+                @Override
+                public void onProgress(int percent) {
+                }
+
+                @Override
+                public void onPartialImage(BufferedImage image, Dimension imageSize) {
+                }
+
+                @Override
+                public void onLoaded(BufferedImage image, Dimension imageSize) {
+                    prefetchTasks.remove(file);
+                    put(file, image, imageSize);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    prefetchTasks.remove(file);
+                }
+            }, targetSize, false);
+            prefetchTasks.put(file, task);
+            prefetcher.execute(task);
+        }
+    }
+
+    private void put(File file, BufferedImage image, Dimension imageSize) {
+        long bytes = bytesOf(image);
+        if (bytes > cacheBudgetBytes) {
+            return;
+        }
+        Decoded old = decodedImages.put(file, new Decoded(image, imageSize));
+        if (old != null) {
+            cacheUsedBytes -= bytesOf(old.image);
+        }
+        cacheUsedBytes += bytes;
+        Iterator<Map.Entry<File, Decoded>> iterator = decodedImages.entrySet().iterator();
+        while (cacheUsedBytes > cacheBudgetBytes && iterator.hasNext()) {
+            Map.Entry<File, Decoded> eldest = iterator.next();
+            if (eldest.getKey().equals(file)) {
+                continue;
+            }
+            cacheUsedBytes -= bytesOf(eldest.getValue().image);
+            iterator.remove();
+        }
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    public void setTargetSize(Dimension targetSize) {
+        this.targetSize = targetSize;
+    }
+
+    // The whole screen, the largest size a photo can be displayed at without zooming
+    private static Dimension defaultTargetSize() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new Dimension(1920, 1080);
+        }
+        Rectangle bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        return new Dimension(bounds.width, bounds.height);
+    }
+
+    public void cancel() {
+        if (currentTask != null) {
+            currentTask.cancel();
+            currentTask = null;
+        }
+    }
+
+    private static class LoadTask implements Runnable {
+        private final File file;
+        private final Callback callback;
+        private final Dimension targetSize;
+        private final boolean progressive; // Reports the progress and the partial images
+        private volatile boolean cancelled = false;
+
+        LoadTask(File file, Callback callback, Dimension targetSize, boolean progressive) {
+            this.file = file;
+            this.callback = callback;
+            this.targetSize = targetSize;
+            this.progressive = progressive;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                ImageReader reader = ImageDecoder.open(file);
+                try {
+                    // The decoder stops at its next progress step instead of reading the rest of the file
+                    ImageDecoder.abortWhen(reader, () -> cancelled);
+                    if (progressive) {
+                        reader.addIIOReadProgressListener(new ProgressAdapter(percent -> deliver(() -> callback.onProgress(percent))));
+                    }
+                    Dimension imageSize = ImageDecoder.readSize(reader);
+                    // Pixels that would never be on screen are not decoded at all
+                    int subsampling = ImageDecoder.subsamplingFor(imageSize, targetSize);
+                    if (cancelled) {
+                        return;
+                    }
+                    if (progressive) {
+                        reader.addIIOReadUpdateListener(new UpdateAdapter(partial -> deliver(() -> callback.onPartialImage(partial, imageSize))));
+                    }
+                    BufferedImage image = ImageDecoder.read(reader, null, subsampling);
+                    deliver(() -> callback.onLoaded(image, imageSize));
+                } finally {
+                    ImageDecoder.close(reader);
+                }
+            } catch (IOException | RuntimeException e) {
+                deliver(() -> callback.onError(e));
+            }
+        }
+
+        // Results of a cancelled load are dropped, also when they are already queued on the event thread
+        private void deliver(Runnable action) {
+            if (!cancelled) {
+                SwingUtilities.invokeLater(() -> {
+                    if (!cancelled) {
+                        action.run();
+                    }
+                });
+            }
+        }
+    }
+
+    // Forwards the image being decoded when new pixels are in it, at most once every UPDATE_INTERVAL_MS
+    private static class UpdateAdapter implements IIOReadUpdateListener {
+        private final Consumer<BufferedImage> onUpdate;
+        private long lastUpdate = 0;
+        private boolean updated = false;
+
+        UpdateAdapter(Consumer<BufferedImage> onUpdate) {
+            this.onUpdate = onUpdate;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            long now = System.nanoTime();
+            if (!updated || now - lastUpdate >= UPDATE_INTERVAL_MS * 1_000_000) {
+                updated = true;
+                lastUpdate = now;
+                onUpdate.accept(theImage);
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+            // Every pass of a progressive image refines all of it
+            imageUpdate(source, theImage, 0, 0, 0, 0, 1, 1, null);
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
+    // Forwards the decoding progress, only when the percentage changes
+    private static class ProgressAdapter implements IIOReadProgressListener {
+        private final IntConsumer onProgress;
+        private int lastPercent = -1;
+
+        ProgressAdapter(IntConsumer onProgress) {
+            this.onProgress = onProgress;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            int percent = (int) percentageDone;
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                onProgress.accept(percent);
+            }
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+            imageProgress(source, 0);
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            imageProgress(source, 100);
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
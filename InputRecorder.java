@@ -0,0 +1,194 @@
+import java.awt.*;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Records the mouse and key events received by a PhotoComponent, with the annotations it had when the recording
+// started, so that InputReplayer can push the same session through the listeners of a component again.
+// The file starts with MAGIC, VERSION, the size of the component and of the photo, whether the photo was flipped and
+// the annotations in the format of an AnnotationFile; then come the events, each one as its time in nanoseconds since
+// the start followed by its fields. A resize of the component is an event too, the coordinates of the events after it
+// depend on the new size. So are the undo and redo run by the toolbar or the shortcuts, the pen color chosen and the
+// overlay shown or hidden, which do not go through the listeners of the component: they have ids of their own, after
+// the ones reserved by AWT, and the color or whether the overlay is shown in x.
+// The events are written as they are received, on the event dispatch thread, through a buffer.
+public class InputRecorder implements Closeable {
+    public static final String SUFFIX = ".input";
+    static final int MAGIC = 0x50494E50; // "PINP"
+    static final int VERSION = 2;
+    static final int UNDO = AWTEvent.RESERVED_ID_MAX + 1;
+    static final int REDO = AWTEvent.RESERVED_ID_MAX + 2;
+    static final int COLOR = AWTEvent.RESERVED_ID_MAX + 3;
+    static final int HUD_VISIBLE = AWTEvent.RESERVED_ID_MAX + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PhotoComponent component;
+    private final DataOutputStream output;
+    private final long start;
+    private final MouseAdapter mouseListener;
+    private final KeyListener keyListener;
+    private final ComponentAdapter resizeListener;
+    private final ActionListener commandListener;
+    private final PropertyChangeListener colorListener;
+    private final PropertyChangeListener hudListener;
+    private int eventCount = 0;
+    // First error while writing, the events after it are dropped
+    private IOException error;
+
+    public InputRecorder(PhotoComponent component, Path path) throws IOException {
+        this.component = component;
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+        PhotoModel model = component.getModel();
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(component.getWidth());
+        output.writeInt(component.getHeight());
+        output.writeInt(model.getImageWidth());
+        output.writeInt(model.getImageHeight());
+        output.writeBoolean(component.isFlipped());
+        ByteBuffer[] annotations = AnnotationFile.encode(model, 0);
+        int length = 0;
+        for (ByteBuffer buffer : annotations) {
+            length += buffer.remaining();
+        }
+        output.writeInt(length);
+        for (ByteBuffer buffer : annotations) {
+            output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        start = System.nanoTime();
+
+        mouseListener = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                record(e);
+            }
+        };
+        keyListener = new KeyListener() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                record(e);
+            }
+
+            @Override
+            public void keyTyped(KeyEvent e) {
+                record(e);
+            }
+        };
+        resizeListener = new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                write(e.getID(), component.getWidth(), component.getHeight(), 0, 0, 0, 0, KeyEvent.CHAR_UNDEFINED, 0);
+            }
+        };
+        commandListener = e -> {
+            if (PhotoComponent.UNDO_COMMAND.equals(e.getActionCommand())) {
+                write(UNDO, 0, 0, 0, 0, 0, 0, KeyEvent.CHAR_UNDEFINED, 0);
+            } else if (PhotoComponent.REDO_COMMAND.equals(e.getActionCommand())) {
+                write(REDO, 0, 0, 0, 0, 0, 0, KeyEvent.CHAR_UNDEFINED, 0);
+            }
+        };
+        colorListener = e -> write(COLOR, ((Color) e.getNewValue()).getRGB(), 0, 0, 0, 0, 0, KeyEvent.CHAR_UNDEFINED, 0);
+        hudListener = e -> write(HUD_VISIBLE, (boolean) e.getNewValue() ? 1 : 0, 0, 0, 0, 0, 0, KeyEvent.CHAR_UNDEFINED, 0);
+        component.addMouseListener(mouseListener);
+        component.addMouseMotionListener(mouseListener);
+        component.addKeyListener(keyListener);
+        component.addComponentListener(resizeListener);
+        component.addActionListener(commandListener);
+        component.addPropertyChangeListener("color", colorListener);
+        component.addPropertyChangeListener("hudVisible", hudListener);
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    private void record(MouseEvent e) {
+        write(e.getID(), e.getX(), e.getY(), e.getModifiersEx(), e.getButton(), e.getClickCount(), 0,
+                KeyEvent.CHAR_UNDEFINED, 0);
+    }
+
+    private void record(KeyEvent e) {
+        write(e.getID(), 0, 0, e.getModifiersEx(), 0, 0, e.getKeyCode(), e.getKeyChar(), e.getKeyLocation());
+    }
+
+    private void write(int id, int x, int y, int modifiers, int button, int clickCount, int keyCode, char keyChar,
+                       int keyLocation) {
+        if (error != null) {
+            return;
+        }
+        try {
+            output.writeLong(System.nanoTime() - start);
+            output.writeInt(id);
+            output.writeInt(x);
+            output.writeInt(y);
+            output.writeInt(modifiers);
+            output.writeInt(button);
+            output.writeInt(clickCount);
+            output.writeInt(keyCode);
+            output.writeChar(keyChar);
+            output.writeInt(keyLocation);
+            eventCount++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    // Stops recording and closes the file, the error that stopped the recording earlier is thrown if there was one
+    @Override
+    public void close() throws IOException {
+        component.removeMouseListener(mouseListener);
+        component.removeMouseMotionListener(mouseListener);
+        component.removeKeyListener(keyListener);
+        component.removeComponentListener(resizeListener);
+        component.removeActionListener(commandListener);
+        component.removePropertyChangeListener("color", colorListener);
+        component.removePropertyChangeListener("hudVisible", hudListener);
+        try {
+            output.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Pushes a session recorded by InputRecorder through the listeners of a new PhotoComponent as fast as it can, headless,
+// and reports the events handled per second and the time taken by each of them, so that builds can be compared on
+// the same real interaction rather than on single methods.
+// The component starts with the size, flip and annotations it had when the recording started; the photo is replaced
+// by a plain image of the same size. Its listeners are called directly, on the event dispatch thread, as the toolkit
+// would, and the undo, redo, color and overlay changes recorded are made through the component itself; the component is painted on an image at most fps times per second of the recorded time, when events changed
+// it, as the repaints asked by the listeners are coalesced on screen. The first run warms up and is not reported.
+// Run with: java -Djava.awt.headless=true InputReplayer <recording> [runs] [fps]
+public class InputReplayer {
+    private static final int DEFAULT_RUNS = 5;
+    private static final int DEFAULT_FPS = 60;
+    // Largest side of the image standing for the photo, a bigger photo is shown subsampled as it would be when loaded
+    private static final int MAX_IMAGE_SIDE = 2048;
+
+    // A session as read from its file
+    private static final class Recording {
+        int width;
+        int height;
+        Dimension imageSize;
+        boolean flipped;
+        ByteBuffer annotations;
+        long[] times;
+        int[][] events; // id, x, y, modifiers, button, clickCount, keyCode, keyChar, keyLocation
+    }
+
+    // Time in nanoseconds taken by every event and every paint of a run
+    private static final class Run {
+        long[] eventNanos;
+        long[] paintNanos;
+        long totalNanos;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java -Djava.awt.headless=true InputReplayer <recording> [runs] [fps]");
+            return;
+        }
+        Path path = Paths.get(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FPS;
+        Recording recording = read(path);
+        System.out.printf("%s: %d events over %.1f s, component %dx%d, photo %dx%d%n", path.getFileName(),
+                recording.times.length, recording.times.length == 0 ? 0 : recording.times[recording.times.length - 1] / 1e9,
+                recording.width, recording.height, recording.imageSize.width, recording.imageSize.height);
+        if (recording.times.length == 0) {
+            return;
+        }
+        List<Run> measured = new ArrayList<>();
+        for (int i = 0; i <= Math.max(1, runs); i++) {
+            Run[] run = new Run[1];
+            SwingUtilities.invokeAndWait(() -> run[0] = replay(recording, fps));
+            if (i > 0) {
+                measured.add(run[0]);
+                report("run " + i, run[0]);
+            }
+        }
+        System.out.println();
+        Run all = new Run();
+        all.eventNanos = new long[0];
+        all.paintNanos = new long[0];
+        for (Run run : measured) {
+            all.eventNanos = concat(all.eventNanos, run.eventNanos);
+            all.paintNanos = concat(all.paintNanos, run.paintNanos);
+            all.totalNanos += run.totalNanos;
+        }
+        report("all runs", all);
+    }
+
+    private static Recording read(Path path) throws IOException {
+        Recording recording = new Recording();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != InputRecorder.MAGIC) {
+                throw new IOException(path.getFileName() + " is not an input recording");
+            }
+            int version = input.readInt();
+            if (version > InputRecorder.VERSION) {
+                throw new IOException(path.getFileName() + " has version " + version + ", only "
+                        + InputRecorder.VERSION + " is supported");
+            }
+            recording.width = input.readInt();
+            recording.height = input.readInt();
+            recording.imageSize = new Dimension(input.readInt(), input.readInt());
+            recording.flipped = input.readBoolean();
+            byte[] annotations = new byte[input.readInt()];
+            input.readFully(annotations);
+            recording.annotations = ByteBuffer.wrap(annotations);
+            long[] times = new long[1024];
+            List<int[]> events = new ArrayList<>();
+            while (true) {
+                long time;
+                try {
+                    time = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int[] event = new int[9];
+                    for (int i = 0; i < 7; i++) {
+                        event[i] = input.readInt();
+                    }
+                    event[7] = input.readChar();
+                    event[8] = input.readInt();
+                    if (events.size() == times.length) {
+                        times = Arrays.copyOf(times, times.length * 2);
+                    }
+                    times[events.size()] = time;
+                    events.add(event);
+                } catch (EOFException e) {
+                    // The application stopped while the last event was written
+                    break;
+                }
+            }
+            recording.times = Arrays.copyOf(times, events.size());
+            recording.events = events.toArray(new int[0][]);
+        }
+        return recording;
+    }
+
+    // Runs on the event dispatch thread, as the listeners expect
+    private static Run replay(Recording recording, int fps) {
+        PhotoModel model = new PhotoModel(placeholder(recording.imageSize), recording.imageSize);
+        try {
+            AnnotationFile.read(recording.annotations.duplicate(), model, "the recording");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        PhotoComponent component = new PhotoComponent(model, null);
+        component.setFlipped(recording.flipped);
+        BufferedImage canvas = resize(component, null, recording.width, recording.height);
+        // The listeners map the events on the photo with the scale of the last paint
+        paint(component, canvas);
+
+        long frameNanos = fps > 0 ? 1_000_000_000L / fps : Long.MAX_VALUE;
+        long nextFrame = 0;
+        boolean dirty = false;
+        long[] eventNanos = new long[recording.times.length];
+        long[] paintNanos = new long[recording.times.length + 1];
+        int paints = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < recording.times.length; i++) {
+            long time = recording.times[i];
+            if (dirty && fps > 0 && time >= nextFrame) {
+                paintNanos[paints++] = paint(component, canvas);
+                dirty = false;
+                nextFrame = time + frameNanos;
+            }
+            int[] event = recording.events[i];
+            long eventStart = System.nanoTime();
+            if (event[0] == ComponentEvent.COMPONENT_RESIZED) {
+                // A resize is painted at once, as on screen, the events after it are mapped with the new scale
+                canvas = resize(component, canvas, event[1], event[2]);
+                paint(component, canvas);
+                dirty = false;
+            } else {
+                dispatch(component, event);
+                dirty = true;
+            }
+            eventNanos[i] = System.nanoTime() - eventStart;
+        }
+        if (dirty && fps > 0) {
+            paintNanos[paints++] = paint(component, canvas);
+        }
+        Run run = new Run();
+        run.totalNanos = System.nanoTime() - start;
+        run.eventNanos = eventNanos;
+        run.paintNanos = Arrays.copyOf(paintNanos, paints);
+        component.dispose();
+        return run;
+    }
+
+    private static BufferedImage resize(PhotoComponent component, BufferedImage canvas, int width, int height) {
+        component.setSize(Math.max(1, width), Math.max(1, height));
+        component.doLayout();
+        if (canvas != null && canvas.getWidth() == component.getWidth() && canvas.getHeight() == component.getHeight()) {
+            return canvas;
+        }
+        return new BufferedImage(component.getWidth(), component.getHeight(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static long paint(PhotoComponent component, BufferedImage canvas) {
+        long start = System.nanoTime();
+        Graphics2D g = canvas.createGraphics();
+        component.paint(g);
+        g.dispose();
+        return System.nanoTime() - start;
+    }
+
+    // Calls the listeners of the component as the toolkit does for an event of the type, or makes the change recorded
+    private static void dispatch(PhotoComponent component, int[] event) {
+        int id = event[0];
+        long when = System.currentTimeMillis();
+        if (id == InputRecorder.UNDO) {
+            component.runCommand(PhotoComponent.UNDO_COMMAND);
+        } else if (id == InputRecorder.REDO) {
+            component.runCommand(PhotoComponent.REDO_COMMAND);
+        } else if (id == InputRecorder.COLOR) {
+            component.setColor(new Color(event[1], true));
+        } else if (id == InputRecorder.HUD_VISIBLE) {
+            component.setHudVisible(event[1] != 0);
+        } else if (id >= MouseEvent.MOUSE_FIRST && id <= MouseEvent.MOUSE_LAST) {
+            MouseEvent e = new MouseEvent(component, id, when, event[3], event[1], event[2], event[5], false, event[4]);
+            for (MouseListener listener : component.getMouseListeners()) {
+                switch (id) {
+                    case MouseEvent.MOUSE_PRESSED:
+                        listener.mousePressed(e);
+                        break;
+                    case MouseEvent.MOUSE_RELEASED:
+                        listener.mouseReleased(e);
+                        break;
+                    case MouseEvent.MOUSE_CLICKED:
+                        listener.mouseClicked(e);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            for (MouseMotionListener listener : component.getMouseMotionListeners()) {
+                if (id == MouseEvent.MOUSE_DRAGGED) {
+                    listener.mouseDragged(e);
+                } else if (id == MouseEvent.MOUSE_MOVED) {
+                    listener.mouseMoved(e);
+                }
+            }
+        } else if (id >= KeyEvent.KEY_FIRST && id <= KeyEvent.KEY_LAST) {
+            KeyEvent e = new KeyEvent(component, id, when, event[3], event[6], (char) event[7], event[8]);
+            for (KeyListener listener : component.getKeyListeners()) {
+                switch (id) {
+                    case KeyEvent.KEY_PRESSED:
+                        listener.keyPressed(e);
+                        break;
+                    case KeyEvent.KEY_RELEASED:
+                        listener.keyReleased(e);
+                        break;
+                    case KeyEvent.KEY_TYPED:
+                        listener.keyTyped(e);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    // Image of the size the photo would be decoded at, in a single color
+    private static BufferedImage placeholder(Dimension imageSize) {
+        double scale = Math.min(1, (double) MAX_IMAGE_SIDE / Math.max(imageSize.width, imageSize.height));
+        BufferedImage image = new BufferedImage(Math.max(1, (int) (imageSize.width * scale)),
+                Math.max(1, (int) (imageSize.height * scale)), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        return image;
+    }
+
+    private static void report(String name, Run run) {
+        System.out.printf("%-9s %8d events %10.0f events/s   event p50 %7.1f us  p99 %8.1f us  max %8.1f us   "
+                        + "%6d paints p50 %7.1f us  p99 %8.1f us%n", name, run.eventNanos.length,
+                run.eventNanos.length / (run.totalNanos / 1e9), percentile(run.eventNanos, 50) / 1e3,
+                percentile(run.eventNanos, 99) / 1e3, percentile(run.eventNanos, 100) / 1e3, run.paintNanos.length,
+                percentile(run.paintNanos, 50) / 1e3, percentile(run.paintNanos, 99) / 1e3);
+    }
+
+    private static long percentile(long[] values, int percent) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1)];
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
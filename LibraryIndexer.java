@@ -0,0 +1,369 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fills a PhotoCatalog with the photos of a folder and of its subfolders, then keeps it up to date.
+// Every folder is listed by its own task and its photos are read by batches of BATCH_SIZE, all of them run in parallel
+// on a fork/join pool, so that neither deep trees nor large flat folders are read by a single thread. Only the header
+// of a photo is read, for its format and size, the pixels are not decoded. The pool has more threads than the
+// machine has cores since they mostly wait for the disk.
+// The folders are watched while they are walked; the photos created, modified or deleted afterwards update the
+// catalog as the changes are reported. Hidden folders, such as the ones of the thumbnails, are skipped.
+// The callbacks are called on the event dispatch thread.
+public class LibraryIndexer {
+    private static final int BATCH_SIZE = 256;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private static final Set<String> IMAGE_SUFFIXES = new HashSet<>();
+
+    static {
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            IMAGE_SUFFIXES.add(suffix.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public interface Callback {
+        // Number of files seen so far by the walk
+        void onProgress(int files);
+
+        void onIndexed(Stats stats);
+
+        // The catalog changed after the walk, as the files of a watched folder did
+        void onChanged();
+    }
+
+    // What a walk found and how fast
+    public static final class Stats {
+        private final int files;
+        private final int photos;
+        private final int folders;
+        private final long nanos;
+
+        Stats(int files, int photos, int folders, long nanos) {
+            this.files = files;
+            this.photos = photos;
+            this.folders = folders;
+            this.nanos = nanos;
+        }
+
+        // Image files looked at, the ones whose header could not be read are not photos
+        public int getFiles() {
+            return files;
+        }
+
+        public int getPhotos() {
+            return photos;
+        }
+
+        public int getFolders() {
+            return folders;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double getFilesPerSecond() {
+            return nanos == 0 ? 0 : files / getSeconds();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d photos in %d folders indexed in %.2f s, %.0f files/s%s", photos, folders,
+                    getSeconds(), getFilesPerSecond(), files > photos ? " (" + (files - photos) + " unreadable)" : "");
+        }
+    }
+
+    private final PhotoCatalog catalog;
+    private final ForkJoinPool pool;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<>();
+    private final Thread watcher;
+    private volatile Callback watchCallback;
+    private final AtomicBoolean changeNotified = new AtomicBoolean(false);
+
+    public LibraryIndexer(PhotoCatalog catalog) throws IOException {
+        this.catalog = catalog;
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("library-indexer-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        watchService = FileSystems.getDefault().newWatchService();
+        watcher = new Thread(this::watch, "library-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public PhotoCatalog getCatalog() {
+        return catalog;
+    }
+
+    // True if the name has the suffix of a format that can be read
+    public static boolean isImageName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && IMAGE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Walks the folder in background, the callback can be null
+    public Future<Stats> index(Path root, Callback callback) {
+        if (callback != null) {
+            watchCallback = callback;
+        }
+        Walk walk = new Walk(callback);
+        return pool.submit(() -> {
+            long start = System.nanoTime();
+            new FolderTask(root, walk).invoke();
+            Stats stats = new Stats(walk.files.get(), walk.photos.get(), walk.folders.get(), System.nanoTime() - start);
+            if (callback != null) {
+                SwingUtilities.invokeLater(() -> callback.onIndexed(stats));
+            }
+            return stats;
+        });
+    }
+
+    // Stops watching the folders and the threads
+    public void close() {
+        pool.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+            // The watcher stops anyway
+        }
+    }
+
+    // Counters of a walk, shared by its tasks
+    private static final class Walk {
+        final Callback callback;
+        // Image files listed by the walk, when they are kept
+        final Set<Path> seen;
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger photos = new AtomicInteger();
+        final AtomicInteger folders = new AtomicInteger();
+        final AtomicLong lastProgress = new AtomicLong(System.nanoTime());
+
+        Walk(Callback callback) {
+            this(callback, null);
+        }
+
+        Walk(Callback callback, Set<Path> seen) {
+            this.callback = callback;
+            this.seen = seen;
+        }
+
+        void filesSeen(int count) {
+            int seen = files.addAndGet(count);
+            long now = System.nanoTime();
+            long last = lastProgress.get();
+            if (callback != null && now - last > PROGRESS_INTERVAL_MS * 1_000_000 && lastProgress.compareAndSet(last, now)) {
+                SwingUtilities.invokeLater(() -> callback.onProgress(seen));
+            }
+        }
+    }
+
+    // Lists a folder, watches it and indexes its photos and subfolders in parallel
+    private class FolderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final Walk walk;
+
+        FolderTask(Path folder, Walk walk) {
+            this.folder = folder;
+            this.walk = walk;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(folder)) {
+                watch(folder);
+                walk.folders.incrementAndGet();
+                for (Path child : children) {
+                    String name = child.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new FolderTask(child, walk).fork());
+                    } else if (isImageName(name)) {
+                        batch.add(child);
+                        if (batch.size() == BATCH_SIZE) {
+                            tasks.add(new BatchTask(batch, walk).fork());
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+            } catch (IOException | SecurityException e) {
+                // A folder that cannot be read is left out, the others are indexed
+            }
+            if (!batch.isEmpty()) {
+                new BatchTask(batch, walk).compute();
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final Walk walk;
+
+        BatchTask(List<Path> files, Walk walk) {
+            this.files = files;
+            this.walk = walk;
+        }
+
+        @Override
+        protected void compute() {
+            int photos = 0;
+            for (Path file : files) {
+                if (indexFile(file)) {
+                    photos++;
+                }
+            }
+            if (walk.seen != null) {
+                walk.seen.addAll(files);
+            }
+            walk.photos.addAndGet(photos);
+            walk.filesSeen(files.size());
+        }
+    }
+
+    // Puts the photo in the catalog, or takes it out if its header cannot be read; false if it is not a photo
+    private boolean indexFile(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            PhotoCatalog.Entry known = catalog.get(file);
+            if (known != null && known.getSize() == attributes.size()
+                    && known.getLastModified() == attributes.lastModifiedTime().toMillis()) {
+                return true;
+            }
+            ImageReader reader = ImageDecoder.open(file.toFile());
+            try {
+                Dimension size = ImageDecoder.readSize(reader);
+                catalog.put(new PhotoCatalog.Entry(file, reader.getFormatName().toLowerCase(Locale.ROOT), size.width,
+                        size.height, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                return true;
+            } finally {
+                ImageDecoder.close(reader);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not an image, or one being written: a later change of the file indexes it again
+            catalog.remove(file);
+            return false;
+        }
+    }
+
+    private void watch(Path folder) {
+        try {
+            WatchKey key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedFolders.put(key, folder);
+        } catch (IOException | ClosedWatchServiceException | UnsupportedOperationException e) {
+            // The folder is indexed once, without updates
+        }
+    }
+
+    // Runs on the watcher thread: applies the changes of the watched folders to the catalog
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path folder = watchedFolders.get(key);
+            if (folder != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed(folder, event);
+                }
+            }
+            if (!key.reset()) {
+                watchedFolders.remove(key);
+            }
+        }
+    }
+
+    private void changed(Path folder, WatchEvent<?> event) {
+        Runnable update;
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // Changes were lost, the folder is walked again; the photos that did not change are not read again, and
+            // the ones the walk did not list were deleted, unless they were created since it listed their folder
+            update = () -> {
+                Set<Path> seen = ConcurrentHashMap.newKeySet();
+                new FolderTask(folder, new Walk(null, seen)).invoke();
+                catalog.removeUnder(folder, path -> !seen.contains(path) && !Files.exists(path, LinkOption.NOFOLLOW_LINKS));
+            };
+        } else {
+            Path child = folder.resolve((Path) event.context());
+            String name = child.getFileName().toString();
+            if (name.startsWith(".")) {
+                return;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                update = () -> catalog.removeUnder(child);
+            } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                update = () -> new FolderTask(child, new Walk(null)).invoke();
+            } else if (isImageName(name)) {
+                update = () -> indexFile(child);
+            } else {
+                return;
+            }
+        }
+        try {
+            pool.execute(() -> {
+                update.run();
+                notifyChanged();
+            });
+        } catch (RejectedExecutionException e) {
+            // The indexer is closed
+        }
+    }
+
+    // Tells the callback once for all the changes made until it runs
+    private void notifyChanged() {
+        Callback callback = watchCallback;
+        if (callback != null && changeNotified.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                changeNotified.set(false);
+                callback.onChanged();
+            });
+        }
+    }
+}
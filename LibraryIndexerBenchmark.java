@@ -0,0 +1,57 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Measures how fast LibraryIndexer reads a library of small photos spread over many folders.
+// Run with: java LibraryIndexerBenchmark [photos] [photosPerFolder], or java LibraryIndexerBenchmark <folder>
+// to index an existing library; a second run shows the throughput once the files are in the disk cache.
+public class LibraryIndexerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && Files.isDirectory(Path.of(args[0]))) {
+            run(Path.of(args[0]));
+            return;
+        }
+        int photos = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int photosPerFolder = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Path root = Files.createTempDirectory("library");
+        try {
+            createLibrary(root, photos, photosPerFolder);
+            run(root);
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void run(Path root) throws Exception {
+        for (int round = 1; round <= 2; round++) {
+            // A new catalog every time, a known photo would not be read again
+            LibraryIndexer indexer = new LibraryIndexer(new PhotoCatalog());
+            LibraryIndexer.Stats stats = indexer.index(root, null).get();
+            System.out.println("Run " + round + ": " + stats);
+            indexer.close();
+        }
+    }
+
+    // The same small JPEG in every file, in folders of two levels
+    private static void createLibrary(Path root, int photos, int photosPerFolder) throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", jpeg);
+        byte[] bytes = jpeg.toByteArray();
+        for (int i = 0; i < photos; i++) {
+            int folder = i / photosPerFolder;
+            Path parent = root.resolve("year" + folder / 10).resolve("event" + folder);
+            if (i % photosPerFolder == 0) {
+                Files.createDirectories(parent);
+            }
+            Files.write(parent.resolve("photo" + i + ".jpg"), bytes);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 public class Main {
     public static void main(String[] args) {
+        PhotoEvents.preload();
         PhotoLibraryFrame photoLibraryFrame = new PhotoLibraryFrame();
 
     }
@@ -0,0 +1,172 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+// Measures the hot paths of drawing and hit-testing the annotations, on the Graphics2D of a BufferedImage so that it
+// runs headless: PhotoModel.drawLines, getSelectedLine and moveLineAt, TextAnnotation.draw and isAnnotationInPoint.
+// Run with: java -Djava.awt.headless=true ModelBenchmark [strokes] [pointsPerStroke] [annotations] [textLength]
+// Every parameter takes a comma separated list of values, every combination of them is measured.
+// A benchmark runs WARMUP_ITERATIONS then MEASURED_ITERATIONS of ITERATION_MS each; the time and the bytes allocated
+// per operation, as counted by the JVM for the thread, are the averages of the measured iterations.
+// The same paths are measured with JMH by the benchmarks module, see benchmarks.ModelBenchmarks.
+public class ModelBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_MS = 300;
+    static final int IMAGE_WIDTH = 4000;
+    static final int IMAGE_HEIGHT = 3000;
+    // The photo is drawn at a quarter of its size, as in a window of a common size
+    static final double SCALE = 0.25;
+
+    // Results are summed here so that the work measured cannot be removed as dead code
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int[] strokeCounts = parse(args, 0, "1000");
+        int[] pointCounts = parse(args, 1, "100");
+        int[] annotationCounts = parse(args, 2, "100");
+        int[] textLengths = parse(args, 3, "40");
+        System.out.printf("%-34s %7s %7s %7s %7s %14s %12s %10s%n", "Benchmark", "strokes", "points", "texts",
+                "length", "ns/op", "B/op", "MB/s");
+        for (int strokes : strokeCounts) {
+            for (int points : pointCounts) {
+                for (int annotations : annotationCounts) {
+                    for (int length : textLengths) {
+                        run(strokes, points, annotations, length);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] parse(String[] args, int index, String defaultValues) {
+        String[] values = (args.length > index ? args[index] : defaultValues).split(",");
+        int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Integer.parseInt(values[i].trim());
+        }
+        return parsed;
+    }
+
+    private static void run(int strokeCount, int pointsPerStroke, int annotationCount, int textLength) {
+        PhotoModel model = buildModel(strokeCount, pointsPerStroke, annotationCount, textLength);
+        BufferedImage canvas = new BufferedImage((int) (IMAGE_WIDTH * SCALE), (int) (IMAGE_HEIGHT * SCALE),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = canvas.createGraphics();
+        g.setFont(TextAnnotation.FONT);
+        FontMetrics font = g.getFontMetrics();
+        Point origin = new Point(0, 0);
+        Rectangle imageArea = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        List<TextAnnotation> texts = model.getAnnotations();
+        // Clicks on the first point of the strokes and texts, so that hits and misses are both tested
+        Random random = new Random(7);
+        Point[] clicks = new Point[256];
+        for (int i = 0; i < clicks.length; i++) {
+            clicks[i] = new Point(random.nextInt(canvas.getWidth()), random.nextInt(canvas.getHeight()));
+            if (i % 2 == 0 && model.getStrokes().getStrokeCount() > 0) {
+                int point = model.getStrokes().getStrokeStart(random.nextInt(model.getStrokes().getStrokeCount()));
+                clicks[i] = new Point((int) (model.getStrokes().getX(point) * SCALE),
+                        (int) (model.getStrokes().getY(point) * SCALE));
+            }
+        }
+        int[] counter = {0};
+        int movedLine = strokeCount / 2;
+
+        String parameters = String.format("%7d %7d %7d %7d", strokeCount, pointsPerStroke, annotationCount, textLength);
+        measure("PhotoModel.drawLines", parameters, () -> {
+            model.drawLines(g, origin, SCALE, SCALE, PhotoUI.NOT_SET, imageArea, line -> true);
+            return 1;
+        });
+        measure("PhotoModel.getSelectedLine", parameters, () -> model.getSelectedLine(
+                clicks[counter[0]++ & 255], origin, SCALE, SCALE, 5));
+        measure("PhotoModel.moveLineAt", parameters, () -> {
+            // Back and forth, so that the line stays in the photo
+            int step = counter[0]++ & 1;
+            model.moveLineAt(movedLine, new Point(1000 + step * 40, 1000 + step * 40));
+            return step;
+        });
+        if (annotationCount > 0) {
+            measure("TextAnnotation.draw", parameters, () -> {
+                texts.get(counter[0]++ % texts.size()).draw(g, origin, SCALE, SCALE, imageArea);
+                return 1;
+            });
+            measure("TextAnnotation.isAnnotationInPoint", parameters, () -> {
+                int i = counter[0]++;
+                return texts.get(i % texts.size()).isAnnotationInPoint(clicks[i & 255], origin, SCALE, SCALE, font,
+                        imageArea) ? 1 : 0;
+            });
+        }
+        g.dispose();
+    }
+
+    private static void measure(String name, String parameters, IntSupplier operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<double[]> results = new ArrayList<>();
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            long operations = 0;
+            long sum = 0;
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long end = start + ITERATION_MS * 1_000_000;
+            long now;
+            do {
+                // Checking the clock every few operations keeps it out of the measure of the fast ones
+                for (int i = 0; i < 16; i++) {
+                    sum += operation.getAsInt();
+                }
+                operations += 16;
+                now = System.nanoTime();
+            } while (now < end);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            sink += sum;
+            if (iteration >= WARMUP_ITERATIONS) {
+                results.add(new double[]{(double) (now - start) / operations, (double) allocated / operations,
+                        allocated / ((now - start) / 1e3)});
+            }
+        }
+        double[] average = new double[3];
+        for (double[] result : results) {
+            for (int i = 0; i < average.length; i++) {
+                average[i] += result[i] / results.size();
+            }
+        }
+        System.out.printf("%-34s %s %14.1f %12.1f %10.1f%n", name, parameters, average[0], average[1], average[2]);
+    }
+
+    // Strokes are random walks with small steps, like the ones drawn with the mouse
+    static PhotoModel buildModel(int strokeCount, int pointsPerStroke, int annotationCount, int textLength) {
+        Random random = new Random(42);
+        Color[] colors = {Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE};
+        PhotoModel model = new PhotoModel(null, new Dimension(IMAGE_WIDTH, IMAGE_HEIGHT));
+        int[] xs = new int[pointsPerStroke];
+        int[] ys = new int[pointsPerStroke];
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            xs[0] = random.nextInt(IMAGE_WIDTH);
+            ys[0] = random.nextInt(IMAGE_HEIGHT);
+            for (int i = 1; i < pointsPerStroke; i++) {
+                xs[i] = Math.max(0, Math.min(IMAGE_WIDTH - 1, xs[i - 1] + random.nextInt(21) - 10));
+                ys[i] = Math.max(0, Math.min(IMAGE_HEIGHT - 1, ys[i - 1] + random.nextInt(21) - 10));
+            }
+            model.addLine(xs, ys, pointsPerStroke, colors[random.nextInt(colors.length)], PhotoModel.DEFAULT_STROKE_WIDTH);
+        }
+        StringBuilder text = new StringBuilder();
+        for (int annotation = 0; annotation < annotationCount; annotation++) {
+            text.setLength(0);
+            while (text.length() < textLength) {
+                // Words of a few letters, so that long texts wrap
+                String word = "word".repeat(1 + random.nextInt(3));
+                text.append(word, 0, Math.min(word.length(), textLength - text.length()));
+                if (text.length() < textLength) {
+                    text.append(' ');
+                }
+            }
+            model.addAnnotation(new TextAnnotation(text.toString(),
+                    new Point(random.nextInt(IMAGE_WIDTH), random.nextInt(IMAGE_HEIGHT)), colors[annotation % colors.length]));
+        }
+        return model;
+    }
+}
@@ -0,0 +1,112 @@
+import java.awt.*;
+import java.awt.event.InputEvent;
+
+// Figures drawn over a PhotoComponent to spot slow paints and heavy photos without a profiler: the time of the last
+// paints with a graph of the last HISTORY of them against the budget of a frame at 60 Hz, the time from a drag or a
+// key to the paint showing it, the size of the model and the stalls of the event dispatch thread.
+// Paints limited to the area of the overlay, made to update it, are not counted as frames.
+public class PerformanceHud {
+    private static final int HISTORY = 120;
+    private static final long FRAME_BUDGET_NANOS = 16_666_667;
+    // An event not followed by a paint within this time did not change anything shown, it is not measured
+    private static final long LATENCY_TIMEOUT_MS = 2000;
+    private static final int WIDTH = 2 * HISTORY + 16;
+    private static final int LINE_HEIGHT = 15;
+    private static final int LINES = 5;
+    private static final int GRAPH_HEIGHT = 40;
+    private static final int HEIGHT = LINES * LINE_HEIGHT + GRAPH_HEIGHT + 16;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+
+    private final long[] frameNanos = new long[HISTORY];
+    private int frameCount = 0;
+    // Time of the oldest drag or key event not painted yet, 0 when there is none
+    private long pendingEventMillis = 0;
+    private long lastLatencyMillis = -1;
+    private long maxLatencyMillis = 0;
+    private int stallCount = 0;
+    private long longestStallMillis = 0;
+    private boolean changed = false;
+
+    // A drag or a key event, measured until the next paint
+    public void eventReceived(InputEvent e) {
+        if (pendingEventMillis == 0) {
+            pendingEventMillis = e.getWhen();
+        }
+    }
+
+    public void framePainted(long nanos) {
+        frameNanos[frameCount % HISTORY] = nanos;
+        frameCount++;
+        if (pendingEventMillis != 0) {
+            long latency = System.currentTimeMillis() - pendingEventMillis;
+            if (latency <= LATENCY_TIMEOUT_MS) {
+                lastLatencyMillis = latency;
+                maxLatencyMillis = Math.max(maxLatencyMillis, latency);
+            }
+            pendingEventMillis = 0;
+        }
+        changed = true;
+    }
+
+    public void stallDetected(EdtWatchdog.Stall stall) {
+        stallCount++;
+        longestStallMillis = Math.max(longestStallMillis, stall.getMillis());
+        changed = true;
+    }
+
+    // True once, after frames or stalls were recorded since the last call
+    public boolean takeChanged() {
+        boolean wasChanged = changed;
+        changed = false;
+        return wasChanged;
+    }
+
+    // Area of the overlay drawn at the location
+    public Rectangle getBounds(Point location) {
+        return new Rectangle(location.x, location.y, WIDTH, HEIGHT);
+    }
+
+    public void draw(Graphics2D g, Point location, PhotoModel model) {
+        Graphics2D hud = (Graphics2D) g.create();
+        hud.translate(location.x, location.y);
+        // The stroke of the annotations is still set
+        hud.setStroke(new BasicStroke(1));
+        hud.setColor(BACKGROUND);
+        hud.fillRect(0, 0, WIDTH, HEIGHT);
+        hud.setFont(FONT);
+        hud.setColor(Color.WHITE);
+
+        int frames = Math.min(frameCount, HISTORY);
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < frames; i++) {
+            total += frameNanos[i];
+            max = Math.max(max, frameNanos[i]);
+        }
+        long last = frameCount > 0 ? frameNanos[(frameCount - 1) % HISTORY] : 0;
+        String[] lines = {
+                String.format("frame %5.1f ms  avg %5.1f  max %5.1f", last / 1e6, frames == 0 ? 0 : total / 1e6 / frames, max / 1e6),
+                lastLatencyMillis < 0 ? "input to paint   -" : String.format("input to paint %4d ms  max %4d", lastLatencyMillis, maxLatencyMillis),
+                String.format("strokes %d  points %d", model.getStrokes().getStrokeCount(), model.getStrokes().getPointCount()),
+                String.format("annotations %d", model.getAnnotations().size()),
+                stallCount == 0 ? "EDT stalls 0" : String.format("EDT stalls %d  longest %d ms", stallCount, longestStallMillis)
+        };
+        for (int i = 0; i < lines.length; i++) {
+            hud.drawString(lines[i], 8, 6 + (i + 1) * LINE_HEIGHT - 3);
+        }
+
+        // A bar per frame, the oldest on the left; the line is the budget of a frame at 60 Hz, the graph shows up to twice it
+        int graphTop = LINES * LINE_HEIGHT + 8;
+        int budgetY = graphTop + GRAPH_HEIGHT / 2;
+        for (int i = 0; i < frames; i++) {
+            long nanos = frameNanos[(frameCount - frames + i) % HISTORY];
+            int height = (int) Math.min(GRAPH_HEIGHT, nanos * (GRAPH_HEIGHT / 2) / FRAME_BUDGET_NANOS);
+            hud.setColor(nanos > FRAME_BUDGET_NANOS ? Color.RED : Color.GREEN);
+            hud.fillRect(8 + (HISTORY - frames + i) * 2, graphTop + GRAPH_HEIGHT - height, 2, Math.max(1, height));
+        }
+        hud.setColor(Color.YELLOW);
+        hud.drawLine(8, budgetY, 8 + HISTORY * 2, budgetY);
+        hud.dispose();
+    }
+}
@@ -0,0 +1,89 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// Photos found in the folders imported, with what their headers tell about them. Filled by the threads of the
+// LibraryIndexer and kept up to date as the files change, it can be read from any thread.
+public class PhotoCatalog {
+
+    // A photo as it was when it was indexed
+    public static final class Entry {
+        private final Path path;
+        private final String format;
+        private final int width;
+        private final int height;
+        private final long size;
+        private final long lastModified;
+
+        public Entry(Path path, String format, int width, int height, long size, long lastModified) {
+            this.path = path;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    public void remove(Path path) {
+        entries.remove(path);
+    }
+
+    // Removes the photos of the folder and of its subfolders
+    public void removeUnder(Path folder) {
+        entries.keySet().removeIf(path -> path.startsWith(folder));
+    }
+
+    // Removes the photos of the folder and of its subfolders that match the filter
+    public void removeUnder(Path folder, Predicate<Path> filter) {
+        entries.keySet().removeIf(path -> path.startsWith(folder) && filter.test(path));
+    }
+
+    // Copy of the photos sorted by path
+    public List<Entry> getEntries() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(Comparator.comparing(Entry::getPath));
+        return sorted;
+    }
+}
@@ -1,25 +1,65 @@
 import javax.swing.*;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
 
 public class PhotoComponent extends JComponent {
+    // Commands of the toolbar and of the key bindings, given to the action listeners once they ran
+    public static final String UNDO_COMMAND = "undo";
+    public static final String REDO_COMMAND = "redo";
+    // How often the performance overlay is updated when the paints did not cover it
+    private static final int HUD_REFRESH_MS = 250;
 
     private final PhotoModel model;
     private final PhotoUI ui;
     private boolean flipped;
     private Color selectedColor; // Store the selected color
+    private double strokeReduction = 1.0; // Points received for every point stored while drawing
+    private boolean painted = false;
+    private boolean imageComplete = true; // False while the image is still being decoded
+    private final File file;
+    private final RegionLoader regionLoader;
+    private final ChangeListener modelListener;
+    private final AnnotationHistory history;
+    private final JToolBar toolbar;
+    private final PerformanceHud hud = new PerformanceHud();
+    private final Timer hudTimer;
+    private boolean hudVisible = false;
 
     public PhotoComponent(Image image) {
+        this(image, new Dimension(image.getWidth(null), image.getHeight(null)), null);
+    }
+
+    // The image can be a subsampled version of the photo in the file, whose full size is imageSize
+    public PhotoComponent(Image image, Dimension imageSize, File file) {
+        this(new PhotoModel(image, imageSize), file);
+    }
+
+    // Shows a model that can have been annotated already, with the image of the file set in it
+    public PhotoComponent(PhotoModel model, File file) {
         super();
-        model = new PhotoModel(image);
-        model.addChangeListener(e -> repaint());
+        this.model = model;
+        this.file = file;
+        Image image = model.getImage();
+        boolean subsampled = image.getWidth(null) < model.getImageWidth() || image.getHeight(null) < model.getImageHeight();
+        regionLoader = file != null && subsampled ? new RegionLoader(file,
+                e -> firePropertyChange("regionError", null, e)) : null;
+        modelListener = e -> repaintRegion(AnnotationChangeEvent.regionOf(e));
+        model.addChangeListener(modelListener);
+        history = new AnnotationHistory(model);
         ui = new PhotoUI(this);
         flipped = false;
 
         selectedColor = Color.BLACK;
         // Create a toolbar and add a button for selecting color
-        JToolBar toolbar = new JToolBar();
+        toolbar = new JToolBar();
         toolbar.setFloatable(false);
         JButton colorButton = new JButton("Pen color");
         toolbar.add(colorButton);
@@ -27,42 +67,209 @@ public class PhotoComponent extends JComponent {
         // Add an ActionListener to the color button
         colorButton.addActionListener(e -> selectColor());
 
+        // Undo and redo, also with the usual shortcuts while the window has the focus
+        JButton undoButton = new JButton("Undo");
+        JButton redoButton = new JButton("Redo");
+        toolbar.add(undoButton);
+        toolbar.add(redoButton);
+        addCommand(UNDO_COMMAND, history::undo);
+        addCommand(REDO_COMMAND, history::redo);
+        undoButton.addActionListener(e -> runCommand(UNDO_COMMAND));
+        redoButton.addActionListener(e -> runCommand(REDO_COMMAND));
+        Runnable updateButtons = () -> {
+            undoButton.setEnabled(history.canUndo());
+            redoButton.setEnabled(history.canRedo());
+        };
+        updateButtons.run();
+        history.addChangeListener(e -> updateButtons.run());
+        // Without a display, as when a session is replayed, the toolkit has no shortcut key
+        int shortcut = GraphicsEnvironment.isHeadless() ? InputEvent.CTRL_DOWN_MASK
+                : Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, shortcut), UNDO_COMMAND);
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Y, shortcut), REDO_COMMAND);
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, shortcut | InputEvent.SHIFT_DOWN_MASK), REDO_COMMAND);
+        addCommand("hud", () -> setHudVisible(!hudVisible));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "hud");
+
+        // The drags and keys are timed until the paint that shows them while the overlay is visible
+        addMouseMotionListener(new MouseAdapter() {
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (hudVisible) {
+                    hud.eventReceived(e);
+                }
+            }
+        });
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (hudVisible) {
+                    hud.eventReceived(e);
+                }
+            }
+        });
+        hudTimer = new Timer(HUD_REFRESH_MS, e -> {
+            if (hud.takeChanged()) {
+                repaint(hud.getBounds(getHudLocation()));
+            }
+        });
+
         // Add the toolbar to the component
         setLayout(new BorderLayout());
         add(toolbar, BorderLayout.NORTH);
     }
 
+    private void addCommand(String name, Runnable command) {
+        getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                command.run();
+                fireActionPerformed(name);
+            }
+        });
+    }
+
+    private void bindKey(KeyStroke key, String name) {
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(key, name);
+    }
+
+    // Runs a command as its button does
+    public void runCommand(String name) {
+        getActionMap().get(name).actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, name));
+    }
+
+    public void addActionListener(ActionListener listener) {
+        listenerList.add(ActionListener.class, listener);
+    }
+
+    public void removeActionListener(ActionListener listener) {
+        listenerList.remove(ActionListener.class, listener);
+    }
+
+    private void fireActionPerformed(String command) {
+        ActionEvent event = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, command);
+        for (ActionListener listener : listenerList.getListeners(ActionListener.class)) {
+            listener.actionPerformed(event);
+        }
+    }
+
     // Method to open the JColorChooser
     private void selectColor() {
         Color newColor = JColorChooser.showDialog(this, "Select Color", selectedColor);
         if (newColor != null) {
-            selectedColor = newColor;
-            ui.updateColorsOfItemsSelected(model, newColor);
+            setColor(newColor);
+        }
+    }
+
+    // Repaints only the part of the component showing the region of the photo that changed
+    private void repaintRegion(Rectangle region) {
+        Rectangle area = ui.getRepaintArea(region);
+        if (area == null) {
             repaint();
+        } else if (!area.isEmpty()) {
+            repaint(area);
         }
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         Graphics2D g2 = (Graphics2D) g;
-        RenderingHints rh = new RenderingHints(
-                RenderingHints.KEY_TEXT_ANTIALIASING,
-                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        g2.setRenderingHints(rh);
+        g2.setRenderingHints(createRenderingHints());
 
         // Set the selected color
         g2.setColor(selectedColor);
 
+        long paintStart = System.nanoTime();
         ui.paint(g2, this);
+        if (hudVisible) {
+            Point location = getHudLocation();
+            Rectangle clip = g2.getClipBounds();
+            // The repaints of the overlay alone are not frames
+            if (clip == null || !hud.getBounds(location).contains(clip)) {
+                hud.framePainted(System.nanoTime() - paintStart);
+            }
+            hud.draw(g2, location, model);
+        }
+        if (!painted) {
+            // Lets the frame measure the time until the photo is first on screen
+            painted = true;
+            firePropertyChange("painted", false, true);
+        }
 
         setFocusable(true);
         requestFocusInWindow();
     }
 
+    // Hints the photo and its annotations are painted with
+    public static RenderingHints createRenderingHints() {
+        return new RenderingHints(
+                RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+
+    // Detaches the component from its model, so that the model can be kept without keeping the component
+    public void dispose() {
+        ui.uninstall(this);
+        model.removeChangeListener(modelListener);
+        history.dispose();
+        hudTimer.stop();
+    }
+
+    // Gives the details missing in a subsampled image, null when the image is at full resolution
+    public RegionLoader getRegionLoader() {
+        return regionLoader;
+    }
+
+    public boolean isImageComplete() {
+        return imageComplete;
+    }
+
+    // While the image is incomplete it is drawn as it is at every paint, the copies made for painting would be stale
+    public void setImageComplete(boolean imageComplete) {
+        this.imageComplete = imageComplete;
+        repaint();
+    }
+
+    // The file the photo was loaded from, or null
+    public File getFile() {
+        return file;
+    }
+
     public PhotoModel getModel() {
         return model;
     }
 
+    // Undo and redo of the changes made while the component is shown
+    public AnnotationHistory getHistory() {
+        return history;
+    }
+
+    // Figures about the paints and the model drawn over the photo, also toggled with F3
+    public PerformanceHud getHud() {
+        return hud;
+    }
+
+    public boolean isHudVisible() {
+        return hudVisible;
+    }
+
+    public void setHudVisible(boolean hudVisible) {
+        boolean oldValue = this.hudVisible;
+        this.hudVisible = hudVisible;
+        if (hudVisible) {
+            hudTimer.start();
+        } else {
+            hudTimer.stop();
+        }
+        repaint();
+        firePropertyChange("hudVisible", oldValue, hudVisible);
+    }
+
+    // Top left corner of the component, below the toolbar
+    private Point getHudLocation() {
+        return new Point(8, toolbar.getHeight() + 8);
+    }
+
     public boolean isFlipped() {
         return flipped;
     }
@@ -75,4 +282,26 @@ public class PhotoComponent extends JComponent {
     public Color getColor() {
         return selectedColor;
     }
+
+    // Color of the lines and texts drawn from now on, given to the selected ones too
+    public void setColor(Color color) {
+        Color oldValue = selectedColor;
+        selectedColor = color;
+        // The colors changed are undone on their own
+        history.endEdit();
+        ui.updateColorsOfItemsSelected(model, color);
+        history.endEdit();
+        repaint();
+        firePropertyChange("color", oldValue, color);
+    }
+
+    public double getStrokeReduction() {
+        return strokeReduction;
+    }
+
+    public void setStrokeReduction(double strokeReduction) {
+        double oldValue = this.strokeReduction;
+        this.strokeReduction = strokeReduction;
+        firePropertyChange("strokeReduction", oldValue, strokeReduction);
+    }
 }
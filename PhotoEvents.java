@@ -0,0 +1,123 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Flight Recorder events around the work done for every paint, click and change, so that a recording shows where the
+// time of the event dispatch thread goes when drawing feels slow. They cost nothing until a recording enables them:
+// java -XX:StartFlightRecording=filename=photos.jfr Main
+// then look at them with: jfr print --events 'photos.*' photos.jfr, or in JDK Mission Control.
+// An event is begun before the work and its fields are only filled when the recording keeps it.
+public final class PhotoEvents {
+    private static final String CATEGORY = "Photo Library";
+
+    private PhotoEvents() {
+    }
+
+    // The first event class loaded starts the Flight Recorder classes, even when nothing is recorded, which takes a few
+    // hundred milliseconds; loaded by a background thread at startup they are not waited for by the first paint
+    public static void preload() {
+        Thread thread = new Thread(() -> {
+            new Paint();
+            new Decode();
+            new HitTest();
+            new Notification();
+            new Stall();
+        }, "events-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Name("photos.Paint")
+    @Label("Paint")
+    @Category(CATEGORY)
+    @Description("The photo and its annotations painted by PhotoUI")
+    static final class Paint extends Event {
+        @Label("Strokes")
+        int strokes;
+
+        @Label("Points")
+        int points;
+
+        @Label("Annotations")
+        int annotations;
+
+        @Label("Layer Rendered")
+        @Description("The committed annotations were rendered again instead of copied")
+        boolean layerRendered;
+
+        @Label("Clip")
+        String clip;
+    }
+
+    @Name("photos.Decode")
+    @Label("Decode")
+    @Category(CATEGORY)
+    @Description("Pixels of a photo decoded by ImageIO")
+    static final class Decode extends Event {
+        @Label("Format")
+        String format;
+
+        @Label("Region")
+        @Description("Only a region of the photo was decoded")
+        boolean region;
+
+        @Label("Subsampling")
+        int subsampling;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("photos.HitTest")
+    @Label("Hit Test")
+    @Category(CATEGORY)
+    @Description("Search of the line or text under a click")
+    static final class HitTest extends Event {
+        @Label("Target")
+        String target;
+
+        @Label("Candidates")
+        @Description("Lines or texts in the photo")
+        int candidates;
+
+        @Label("Hit")
+        @Description("Index of the line or text found, -1 if none was")
+        int hit;
+    }
+
+    @Name("photos.Notification")
+    @Label("Notification")
+    @Category(CATEGORY)
+    @Description("A change sent to the listeners of a model or of a text")
+    static final class Notification extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Listeners")
+        int listeners;
+
+        @Label("Whole Photo")
+        @Description("The change is not limited to a region, everything is drawn again")
+        boolean wholePhoto;
+    }
+
+    @Name("photos.EdtStall")
+    @Label("EDT Stall")
+    @Category(CATEGORY)
+    @Description("The event dispatch thread did not handle events for longer than the threshold of the EdtWatchdog")
+    static final class Stall extends Event {
+        @Label("Stall")
+        @Timespan(Timespan.MILLISECONDS)
+        long stall;
+
+        @Label("Culprit")
+        @Description("First frame of the application in the stack of the thread while it was blocked")
+        String culprit;
+    }
+}
@@ -7,6 +7,17 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 // PhotoLibraryFrame class extends JFrame to create the main application window
 public class PhotoLibraryFrame extends JFrame {
@@ -16,29 +27,75 @@ public class PhotoLibraryFrame extends JFrame {
     private final int HEIGHT = 400;
     private final int MIN_WIDTH = 400;
     private final int MIN_HEIGHT = 200;
+    // Photos decoded in advance on each side of the one shown
+    private final int PREFETCH_NEIGHBOURS = 2;
     JMenu fileMenu, viewMenu;
 
     // File menu options
     JMenuBar menuBar;
-    JMenuItem fmImport, fmDelete, fmQuit;
+    JMenuItem fmImport, fmImportFolder, fmDelete, fmQuit;
+    JCheckBoxMenuItem fmRecordInput;
 
     // View menu options
     ButtonGroup btnGroupView;
     JRadioButtonMenuItem vmPhotoViewer, vmBrowser;
+    JCheckBoxMenuItem vmPerformanceHud;
     JScrollPane scrollPane;
+    JScrollPane browserScrollPane;
+    ThumbnailGrid thumbnailGrid;
+    File browsedFolder = null;
     JLabel statusBar;
     JToolBar toolBar;
+    // Toggle buttons of the tags, the photos shown in the browser have the ones selected
+    JPanel tagPanel;
+    GridBagConstraints tagConstraints;
+    Map<String, JToggleButton> tagButtons = new LinkedHashMap<>();
+    Set<String> activeTags = new LinkedHashSet<>();
+    JCheckBox matchAllBox;
+    // Tags of the photos of the listed folder, null until they are needed
+    TagIndex tagIndex = null;
+    File taggedFolder = null;
     PhotoComponent photoComponent;
     File fileSelected = null;
+    ImageLoader imageLoader = new ImageLoader();
+    // Photos of the folders imported, kept up to date while the application runs
+    PhotoCatalog catalog = new PhotoCatalog();
+    LibraryIndexer libraryIndexer = null;
+    // Photos of the folder of the selected file, listed once per folder
+    List<File> folderFiles = Collections.emptyList();
+    File listedFolder = null;
+    // Journal recording the annotations of the photo shown, null if they could not be read
+    AnnotationJournal annotationJournal = null;
+    // Annotated photos that are not shown, with their closed journal and without their image
+    Map<File, AnnotationJournal> annotatedJournals = new HashMap<>();
+    // Records the events of the photo shown to be replayed by InputReplayer, null when not recording
+    InputRecorder inputRecorder = null;
+    // Reports the times the interface stopped responding, with what it was doing
+    EdtWatchdog edtWatchdog;
 
     // Constructor for PhotoLibrary class
     public PhotoLibraryFrame() {
         super(TITLE_FRAME);
         this.createMenuBar();    // Create the menu bar
-        this.createMainPanel();  // Create the main panel
+        this.createMainPanel(null);  // Create the main panel
         this.createStatusBar();  // Create the status bar
         this.createToolBar();    // Create the toolbar
         this.setFrameParameters(); // Set parameters for the frame
+        edtWatchdog = new EdtWatchdog(EdtWatchdog.DEFAULT_THRESHOLD_MS, this::stallDetected);
+        // The thumbnails made while browsing and the annotations of the photo shown are saved when the window is closed
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeBrowser();
+                stopInputRecording();
+                closeAnnotations();
+                AnnotationJournal.awaitClosed();
+                edtWatchdog.close();
+                if(libraryIndexer != null) {
+                    libraryIndexer.close();
+                }
+            }
+        });
     }
 
     // Creates the menu bar for the application
@@ -49,15 +106,22 @@ public class PhotoLibraryFrame extends JFrame {
 
         // Creation and addition of menu items for the "File" menu
         fileMenu.add(fmImport = new JMenuItem("Import"));
+        fileMenu.add(fmImportFolder = new JMenuItem("Import folder"));
         fileMenu.add(fmDelete = new JMenuItem("Delete"));
+        fileMenu.add(fmRecordInput = new JCheckBoxMenuItem("Record input"));
         fileMenu.add(fmQuit = new JMenuItem("Quit"));
 
         // Add action listeners for "Import," "Delete," and "Quit" menu items
         fmImport.addActionListener(e -> this.importFile());
+        fmImportFolder.addActionListener(e -> this.importFolder());
         fmQuit.addActionListener(e -> this.quitApplication());
+        fmRecordInput.addActionListener(e -> this.toggleInputRecording());
         fmDelete.addActionListener(e -> {
+            File deleted = fileSelected;
             fileSelected = null;
-            this.createMainPanel();
+            imageLoader.cancel();
+            this.createMainPanel(null);
+            annotatedJournals.remove(deleted);
         });
 
         // Creation and addition of menu items for the "View" menu
@@ -68,6 +132,15 @@ public class PhotoLibraryFrame extends JFrame {
         btnGroupView.add(vmBrowser);
         viewMenu.add(vmPhotoViewer);
         viewMenu.add(vmBrowser);
+        vmPhotoViewer.addActionListener(e -> this.showSelectedView());
+        vmBrowser.addActionListener(e -> this.showSelectedView());
+        viewMenu.addSeparator();
+        viewMenu.add(vmPerformanceHud = new JCheckBoxMenuItem("Performance overlay"));
+        vmPerformanceHud.addActionListener(e -> {
+            if(photoComponent != null) {
+                photoComponent.setHudVisible(vmPerformanceHud.isSelected());
+            }
+        });
 
         menuBar.add(fileMenu);
         menuBar.add(viewMenu);
@@ -75,35 +148,368 @@ public class PhotoLibraryFrame extends JFrame {
         this.setJMenuBar(menuBar); // Set the menu bar for the frame
     }
 
-    // Creates the main panel for the application
-    private void createMainPanel() {
+    // Creates the main panel for the application, showing the image or a placeholder while it is being loaded
+    private void createMainPanel(BufferedImage image) {
+        createMainPanel(image, image == null ? null : new Dimension(image.getWidth(), image.getHeight()));
+    }
+
+    // The image can be a subsampled version of the selected file, whose photo has the given full size
+    private void createMainPanel(BufferedImage image, Dimension imageSize) {
         if(scrollPane != null) {
             this.remove(scrollPane);
         }
+        keepAnnotations();
         JPanel mainPanel = new JPanel(); // Create the main panel
         mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.X_AXIS));
         mainPanel.setBackground(Color.LIGHT_GRAY);
-        try {
-            if(fileSelected != null) {
-                BufferedImage image = ImageIO.read(fileSelected);
-                photoComponent = new PhotoComponent(image);
-                photoComponent.setPreferredSize(new Dimension((int)(image.getWidth() * 0.6), (int)(image.getWidth() * 0.6)));
-                JButton previousButton = new JButton("< Previous");
-                previousButton.addActionListener(e -> this.setStatusMessage(IMPLEMENTATION_MISSING_MESSAGE));
-                JButton nextButton = new JButton("Next >");
-                nextButton.addActionListener(e -> this.setStatusMessage(IMPLEMENTATION_MISSING_MESSAGE));
-                mainPanel.add(previousButton);
-                mainPanel.add(photoComponent);
-                mainPanel.add(nextButton);
-            }
-        } catch (java.io.IOException e) {
-            e.printStackTrace();
+        if(image != null) {
+            PhotoModel model;
+            annotationJournal = annotatedJournals.remove(fileSelected);
+            if(annotationJournal != null) {
+                model = annotationJournal.getModel();
+                model.setImage(image, imageSize);
+                annotationJournal.resume();
+            } else {
+                model = openAnnotations(image, imageSize);
+            }
+            photoComponent = new PhotoComponent(model, fileSelected);
+            photoComponent.addPropertyChangeListener("strokeReduction", e ->
+                    this.setStatusMessage(String.format("Stroke points reduced %.1fx", (double) e.getNewValue())));
+            photoComponent.addPropertyChangeListener("regionError", e -> this.setStatusMessage("Cannot decode the details of "
+                    + ((PhotoComponent) e.getSource()).getFile().getName() + ": " + ((IOException) e.getNewValue()).getMessage()));
+            photoComponent.setPreferredSize(new Dimension((int)(imageSize.width * 0.6), (int)(imageSize.width * 0.6)));
+            // The overlay stays on from a photo to the next, F3 on the photo toggles it as the menu does
+            photoComponent.setHudVisible(vmPerformanceHud.isSelected());
+            photoComponent.addPropertyChangeListener("hudVisible", e -> vmPerformanceHud.setSelected((boolean) e.getNewValue()));
+            int index = Collections.binarySearch(getFolderFiles(), fileSelected);
+            JButton previousButton = new JButton("< Previous");
+            previousButton.setEnabled(index > 0);
+            previousButton.addActionListener(e -> this.showNeighbour(-1));
+            JButton nextButton = new JButton("Next >");
+            nextButton.setEnabled(index >= 0 && index < getFolderFiles().size() - 1);
+            nextButton.addActionListener(e -> this.showNeighbour(1));
+            mainPanel.add(previousButton);
+            mainPanel.add(photoComponent);
+            mainPanel.add(nextButton);
+        } else if(fileSelected != null) {
+            JLabel placeholder = new JLabel("Loading " + fileSelected.getName() + "...");
+            placeholder.setFont(new Font("Arial", Font.PLAIN, 16));
+            mainPanel.add(Box.createHorizontalGlue());
+            mainPanel.add(placeholder);
+            mainPanel.add(Box.createHorizontalGlue());
         }
         scrollPane = new JScrollPane(mainPanel);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
-        this.add(scrollPane, BorderLayout.CENTER); // Add the main panel to the frame's center
-        this.pack();
+        this.showSelectedView();
+        if(!vmBrowser.isSelected()) {
+            this.pack();
+        }
+    }
+
+    // Keeps the annotations of the photo being replaced, detached from its component and without its image
+    private void keepAnnotations() {
+        if(photoComponent == null) {
+            return;
+        }
+        // A recording starts from the annotations of a single photo
+        stopInputRecording();
+        photoComponent.dispose();
+        PhotoModel model = photoComponent.getModel();
+        AnnotationJournal journal = annotationJournal;
+        closeAnnotations();
+        if(journal != null && !model.isEmpty()) {
+            model.setImage(null, new Dimension(model.getImageWidth(), model.getImageHeight()));
+            annotatedJournals.put(photoComponent.getFile(), journal);
+        }
+        photoComponent = null;
+    }
+
+    // Model of the selected photo with the annotations saved next to it, if any, recorded from now on
+    private PhotoModel openAnnotations(BufferedImage image, Dimension imageSize) {
+        PhotoModel model = new PhotoModel(image, imageSize);
+        try {
+            annotationJournal = AnnotationJournal.open(fileSelected, model);
+        } catch (IOException e) {
+            // The files are left as they are, the annotations made are not saved
+            model = new PhotoModel(image, imageSize);
+            setStatusMessage("Cannot read the annotations of " + fileSelected.getName() + ": " + e.getMessage());
+        }
+        return model;
+    }
+
+    // Writes the annotations of the photo shown as a snapshot in background, a photo without annotations has no file
+    private void closeAnnotations() {
+        if(annotationJournal == null) {
+            return;
+        }
+        String name = photoComponent.getFile().getName();
+        annotationJournal.close(e -> setStatusMessage("Cannot save the annotations of " + name + ": " + e.getMessage()));
+        annotationJournal = null;
+    }
+
+    // Shows that the interface stopped responding and why, the whole stack is printed for the logs
+    private void stallDetected(EdtWatchdog.Stall stall) {
+        System.err.println(stall);
+        setStatusMessage(String.format("Blocked for %d ms in %s", stall.getMillis(), stall.getCulprit()));
+        if(photoComponent != null) {
+            photoComponent.getHud().stallDetected(stall);
+        }
+    }
+
+    // Starts recording the mouse and key events of the photo shown in a file, or stops the recording
+    private void toggleInputRecording() {
+        if(inputRecorder != null) {
+            stopInputRecording();
+            return;
+        }
+        fmRecordInput.setSelected(false);
+        if(photoComponent == null) {
+            setStatusMessage("Open a photo to record");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(photoComponent.getFile().getName() + InputRecorder.SUFFIX));
+        if(chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try {
+            inputRecorder = new InputRecorder(photoComponent, file.toPath());
+            fmRecordInput.setSelected(true);
+            setStatusMessage("Recording input to " + file.getName());
+        } catch (IOException e) {
+            setStatusMessage("Cannot record to " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private void stopInputRecording() {
+        if(inputRecorder == null) {
+            return;
+        }
+        try {
+            inputRecorder.close();
+            setStatusMessage(inputRecorder.getEventCount() + " events recorded");
+        } catch (IOException e) {
+            setStatusMessage("Cannot record the input: " + e.getMessage());
+        }
+        inputRecorder = null;
+        fmRecordInput.setSelected(false);
+    }
+
+    // Indexes the photos of a folder and of its subfolders in the catalog, the first one is shown if none is
+    private void importFolder() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if(chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File folder = chooser.getSelectedFile();
+        try {
+            if(libraryIndexer == null) {
+                libraryIndexer = new LibraryIndexer(catalog);
+            }
+        } catch (IOException e) {
+            setStatusMessage("Cannot index " + folder.getName() + ": " + e.getMessage());
+            return;
+        }
+        setStatusMessage("Indexing " + folder.getName());
+        libraryIndexer.index(folder.toPath(), new LibraryIndexer.Callback() {
+            @Override
+            public void onProgress(int files) {
+                setStatusMessage("Indexing " + folder.getName() + ": " + files + " files");
+            }
+
+            @Override
+            public void onIndexed(LibraryIndexer.Stats stats) {
+                setStatusMessage(stats.toString());
+                if(fileSelected == null && catalog.size() > 0) {
+                    fileSelected = catalog.getEntries().get(0).getPath().toFile();
+                    loadSelectedFile();
+                }
+            }
+
+            @Override
+            public void onChanged() {
+                // The photos of the folder shown are listed again the next time they are needed
+                listedFolder = null;
+                setStatusMessage(catalog.size() + " photos in the library");
+            }
+        });
+    }
+
+    // Shows the photo before (-1) or after (1) the selected one in its folder
+    private void showNeighbour(int step) {
+        List<File> files = getFolderFiles();
+        int index = Collections.binarySearch(files, fileSelected);
+        if(index >= 0 && index + step >= 0 && index + step < files.size()) {
+            fileSelected = files.get(index + step);
+            loadSelectedFile();
+        }
+    }
+
+    // Decodes the photos around the given one in the background, the next ones first
+    private void prefetchNeighbours(File file) {
+        List<File> files = getFolderFiles();
+        int index = Collections.binarySearch(files, file);
+        List<File> neighbours = new ArrayList<>();
+        for(int distance = 1; index >= 0 && distance <= PREFETCH_NEIGHBOURS; distance++) {
+            if(index + distance < files.size()) {
+                neighbours.add(files.get(index + distance));
+            }
+            if(index - distance >= 0) {
+                neighbours.add(files.get(index - distance));
+            }
+        }
+        imageLoader.prefetch(neighbours);
+    }
+
+    private List<File> getFolderFiles() {
+        File folder = fileSelected != null ? fileSelected.getParentFile() : null;
+        if(folder == null) {
+            return Collections.emptyList();
+        }
+        if(!folder.equals(listedFolder)) {
+            folderFiles = listImageFiles(folder);
+            listedFolder = folder;
+        }
+        return folderFiles;
+    }
+
+    // Shows the photo viewer or the browser in the frame's center, whichever is selected in the View menu
+    private void showSelectedView() {
+        if(scrollPane != null) {
+            this.remove(scrollPane);
+        }
+        if(browserScrollPane != null) {
+            this.remove(browserScrollPane);
+        }
+        this.add(vmBrowser.isSelected() ? getBrowserScrollPane() : scrollPane, BorderLayout.CENTER);
+        this.revalidate();
+        this.repaint();
+    }
+
+    // The browser shows the photos in the folder of the selected file, it is made again when the folder changes
+    private JScrollPane getBrowserScrollPane() {
+        File folder = fileSelected != null ? fileSelected.getParentFile() : null;
+        if(browserScrollPane != null && Objects.equals(folder, browsedFolder)) {
+            return browserScrollPane;
+        }
+        closeBrowser();
+        browsedFolder = folder;
+        JComponent view;
+        if(folder == null) {
+            JLabel placeholder = new JLabel("Import a photo to browse its folder", JLabel.CENTER);
+            placeholder.setFont(new Font("Arial", Font.PLAIN, 16));
+            view = placeholder;
+        } else {
+            List<File> files = getFolderFiles();
+            ThumbnailStore store = null;
+            try {
+                store = ThumbnailStore.open(folder);
+            } catch (IOException e) {
+                // A folder that cannot be written gets its thumbnails made at every start
+            }
+            thumbnailGrid = new ThumbnailGrid(files, store);
+            thumbnailGrid.addActionListener(e -> this.openFromBrowser(new File(e.getActionCommand())));
+            view = thumbnailGrid;
+            setStatusMessage(files.size() + " photos in " + folder.getName());
+            if(!activeTags.isEmpty()) {
+                applyTagFilter();
+            }
+        }
+        browserScrollPane = new JScrollPane(view);
+        browserScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        browserScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        return browserScrollPane;
+    }
+
+    // Stops making thumbnails and saves the ones made, the browser is made again the next time it is shown
+    private void closeBrowser() {
+        if(thumbnailGrid != null) {
+            File folder = browsedFolder;
+            thumbnailGrid.dispose(e -> setStatusMessage("Cannot save the thumbnails of " + folder.getName() + ": " + e.getMessage()));
+            thumbnailGrid = null;
+        }
+        if(browserScrollPane != null) {
+            this.remove(browserScrollPane);
+            browserScrollPane = null;
+        }
+    }
+
+    // Image files of the folder that ImageIO can read, sorted by name
+    private static List<File> listImageFiles(File folder) {
+        File[] files = folder.listFiles(file -> LibraryIndexer.isImageName(file.getName()) && file.isFile());
+        if(files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private void openFromBrowser(File file) {
+        fileSelected = file;
+        vmPhotoViewer.setSelected(true);
+        loadSelectedFile();
+    }
+
+    // Decodes the selected file in background, a load still running for another file is cancelled.
+    // The photo is shown, and can be annotated, as soon as the first rows are decoded
+    private void loadSelectedFile() {
+        File file = fileSelected;
+        long start = System.nanoTime();
+        long[] firstPaint = {0};
+        if(!imageLoader.isDecoded(file)) {
+            createMainPanel(null);
+            setStatusMessage("Loading " + file.getName());
+        }
+        imageLoader.load(file, new ImageLoader.Callback() {
+            private BufferedImage partialImage;
+
+            @Override
+            public void onProgress(int percent) {
+                setStatusMessage("Loading " + file.getName() + " " + percent + "%");
+            }
+
+            @Override
+            public void onPartialImage(BufferedImage image, Dimension imageSize) {
+                if (partialImage == null) {
+                    partialImage = image;
+                    createMainPanel(image, imageSize);
+                    photoComponent.setImageComplete(false);
+                    photoComponent.addPropertyChangeListener("painted", e -> firstPaint[0] = System.nanoTime());
+                } else {
+                    photoComponent.repaint();
+                }
+            }
+
+            @Override
+            public void onLoaded(BufferedImage image, Dimension imageSize) {
+                long decoded = System.nanoTime();
+                prefetchNeighbours(file);
+                if (partialImage == null) {
+                    createMainPanel(image, imageSize);
+                    photoComponent.addPropertyChangeListener("painted", e -> setStatusMessage(String.format(
+                            "%s decoded in %d ms, first paint after %d ms", file.getName(),
+                            (decoded - start) / 1_000_000, (System.nanoTime() - start) / 1_000_000)));
+                    return;
+                }
+                // The annotations made while decoding are kept, only the image is swapped if the reader made a new one
+                if (image != partialImage) {
+                    photoComponent.getModel().setImage(image, imageSize);
+                }
+                photoComponent.setImageComplete(true);
+                setStatusMessage(String.format("%s decoded in %d ms, first paint after %d ms", file.getName(),
+                        (decoded - start) / 1_000_000, (Math.max(firstPaint[0], start) - start) / 1_000_000));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fileSelected = null;
+                createMainPanel(null);
+                setStatusMessage("Cannot open " + file.getName() + ": " + e.getMessage());
+            }
+        });
     }
 
     // Creates the status bar at the bottom of the application window
@@ -127,7 +533,7 @@ public class PhotoLibraryFrame extends JFrame {
                 new ImageIcon("src/icons/places.png"),
                 new ImageIcon("src/icons/school.png")
         };
-        String[] buttonNames = {"People", "Places", "School"};
+        String[] buttonNames = TagIndex.DEFAULT_TAGS.toArray(new String[0]);
 
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.gridx = 0;
@@ -136,14 +542,26 @@ public class PhotoLibraryFrame extends JFrame {
         gbc.weighty = 1.0;
         gbc.insets = new Insets(5, 0, 5, 0);
 
+        // Buttons acting on the tags themselves, above the toggles
+        matchAllBox = new JCheckBox("Match all");
+        matchAllBox.setToolTipText("Show the photos with all the selected tags instead of any of them");
+        matchAllBox.addItemListener(e -> this.applyTagFilter());
+        panel.add(matchAllBox, gbc);
+        gbc.gridy++;
+        JButton tagPhotoButton = new JButton("Tag photo...");
+        tagPhotoButton.addActionListener(e -> this.tagPhoto());
+        panel.add(tagPhotoButton, gbc);
+        gbc.gridy++;
+        JButton newTagButton = new JButton("New tag...");
+        newTagButton.addActionListener(e -> this.createTag());
+        panel.add(newTagButton, gbc);
+        gbc.gridy++;
+
         // Create and add toggle buttons for filtering images
+        tagPanel = panel;
+        tagConstraints = gbc;
         for (int i = 0; i < icons.length; i++) {
-            JToggleButton button = new JToggleButton(buttonNames[i], icons[i]);
-            String buttonName = buttonNames[i];
-            button.addItemListener(e -> filterImage(buttonName, e.getStateChange() == ItemEvent.SELECTED));
-            button.setFont(new Font("Arial", Font.PLAIN, 16));
-            panel.add(button, gbc);
-            gbc.gridy++;
+            addTagButton(buttonNames[i], icons[i]);
         }
 
         toolBar.add(panel);
@@ -167,7 +585,7 @@ public class PhotoLibraryFrame extends JFrame {
         int returnVal = chooser.showOpenDialog(this); // Show the file chooser dialog
         if(returnVal == JFileChooser.APPROVE_OPTION) {
             fileSelected = chooser.getSelectedFile();
-            createMainPanel();
+            loadSelectedFile();
         } else {
             this.setStatusMessage("Error in the file selection");
         }
@@ -182,8 +600,119 @@ public class PhotoLibraryFrame extends JFrame {
         this.dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)); // Quit the application
     }
 
+    private void addTagButton(String tag, Icon icon) {
+        if(tagButtons.containsKey(tag)) {
+            return;
+        }
+        JToggleButton button = new JToggleButton(tag, icon);
+        button.addItemListener(e -> filterImage(tag, e.getStateChange() == ItemEvent.SELECTED));
+        button.setFont(new Font("Arial", Font.PLAIN, 16));
+        tagPanel.add(button, tagConstraints);
+        tagConstraints.gridy++;
+        tagButtons.put(tag, button);
+        tagPanel.revalidate();
+    }
+
     private void filterImage(String filter, Boolean isActive) {
-        this.setStatusMessage(isActive ? filter : ""); // Set the status bar message based on filter status
+        if(isActive) {
+            activeTags.add(filter);
+        } else {
+            activeTags.remove(filter);
+        }
+        applyTagFilter();
+    }
+
+    // Shows in the browser the photos with the selected tags, from the and/or of their bitmaps
+    private void applyTagFilter() {
+        TagIndex index = getTagIndex();
+        if(index == null) {
+            this.setStatusMessage(String.join(matchAllBox.isSelected() ? " and " : " or ", activeTags));
+            return;
+        }
+        long start = System.nanoTime();
+        TagBitmap matched = index.match(activeTags, matchAllBox.isSelected());
+        long elapsed = System.nanoTime() - start;
+        if(thumbnailGrid != null) {
+            thumbnailGrid.setFilter(matched);
+        }
+        if(matched == null) {
+            this.setStatusMessage("");
+        } else {
+            this.setStatusMessage(String.format("%d photos tagged %s (%.1f \u00b5s)", matched.getCardinality(),
+                    String.join(matchAllBox.isSelected() ? " and " : " or ", activeTags), elapsed / 1000.0));
+        }
+    }
+
+    // Tags of the photos of the folder of the selected file, null if there is none
+    private TagIndex getTagIndex() {
+        List<File> files = getFolderFiles();
+        if(listedFolder == null) {
+            return null;
+        }
+        if(!listedFolder.equals(taggedFolder)) {
+            taggedFolder = listedFolder;
+            try {
+                tagIndex = TagIndex.open(listedFolder, files);
+            } catch (IOException e) {
+                tagIndex = null;
+                setStatusMessage("Cannot read the tags of " + listedFolder.getName() + ": " + e.getMessage());
+                return null;
+            }
+            for(String tag : tagIndex.getTags()) {
+                addTagButton(tag, null);
+            }
+        }
+        return tagIndex;
+    }
+
+    // Adds a tag of the user, with its toggle button
+    private void createTag() {
+        String tag = JOptionPane.showInputDialog(this, "Name of the new tag", "New tag", JOptionPane.PLAIN_MESSAGE);
+        if(tag == null || tag.isBlank()) {
+            return;
+        }
+        // Tabs separate the names in the file of the tags
+        tag = tag.strip().replace('\t', ' ');
+        TagIndex index = getTagIndex();
+        if(index != null) {
+            index.addTag(tag);
+            saveTags(index);
+        }
+        addTagButton(tag, null);
+    }
+
+    // Lets the user choose the tags of the photo selected in the browser, or of the one shown
+    private void tagPhoto() {
+        File file = vmBrowser.isSelected() && thumbnailGrid != null ? thumbnailGrid.getSelectedFile() : fileSelected;
+        TagIndex index = getTagIndex();
+        if(file == null || index == null || index.getId(file) < 0) {
+            setStatusMessage("Select a photo to tag");
+            return;
+        }
+        JPanel checkBoxes = new JPanel(new GridLayout(0, 1));
+        Map<String, JCheckBox> boxes = new HashMap<>();
+        for(String tag : tagButtons.keySet()) {
+            JCheckBox box = new JCheckBox(tag, index.hasTag(file, tag));
+            boxes.put(tag, box);
+            checkBoxes.add(box);
+        }
+        if(JOptionPane.showConfirmDialog(this, checkBoxes, "Tags of " + file.getName(), JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        for(Map.Entry<String, JCheckBox> entry : boxes.entrySet()) {
+            index.setTag(file, entry.getKey(), entry.getValue().isSelected());
+        }
+        saveTags(index);
+        applyTagFilter();
+    }
+
+    private void saveTags(TagIndex index) {
+        try {
+            index.save();
+        } catch (IOException e) {
+            setStatusMessage("Cannot save the tags: " + e.getMessage());
+        }
     }
 
 }
\ No newline at end of file
@@ -1,25 +1,41 @@
-import fr.lri.swingstates.canvas.CStateMachine;
-
-import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 public class PhotoModel {
     private Image image;
-    private List<TextAnnotation> textAnnotations = new ArrayList<>();
-    private List<ColorPoint> drawingPoints = new ArrayList<>();
-    public static final Point BREAK_POINT = new Point(-1, -1);
+    // Size of the photo in its file, the image kept in memory can be a subsampled version of it
+    private Dimension imageSize;
+    private final List<TextAnnotation> textAnnotations = new ArrayList<>();
+    // Listeners added to every text, removed with it
+    private List<ChangeListener> textChangeListeners = new ArrayList<>();
+    private List<AnnotationOperation.Listener> textOperationListeners = new ArrayList<>();
+    private final StrokeStore strokes = new StrokeStore();
+    private final SegmentGrid segmentGrid = new SegmentGrid();
+    public static final float DEFAULT_STROKE_WIDTH = 6.0f;
 
     private List<ChangeListener> changeListeners = new ArrayList<>();
+    private List<AnnotationOperation.Listener> operationListeners = new ArrayList<>();
+    // Changes collected while a batch is running, published as a single event at its end
+    private int batchDepth = 0;
+    private boolean hasPendingChange = false;
+    private Rectangle pendingRegion;
+    private boolean pendingWholePhoto = false;
+    private BitSet pendingLines = new BitSet();
+    private BitSet pendingTexts = new BitSet();
 
     public PhotoModel(Image image) {
+        this(image, sizeOf(image));
+    }
+
+    // Annotations are kept in the coordinates of the photo at its full size
+    public PhotoModel(Image image, Dimension imageSize) {
         this.image = image;
-        this.drawingPoints = new ArrayList<>();
-        this.textAnnotations = new ArrayList<>();
+        this.imageSize = imageSize;
     }
 
     public Image getImage() {
@@ -27,113 +43,266 @@ public class PhotoModel {
     }
 
     public void setImage(Image image) {
+        setImage(image, sizeOf(image));
+    }
+
+    public void setImage(Image image, Dimension imageSize) {
         this.image = image;
+        this.imageSize = imageSize;
         fireChangeListeners();
     }
 
+    public int getImageWidth() {
+        return imageSize.width;
+    }
+
+    public int getImageHeight() {
+        return imageSize.height;
+    }
+
+    private static Dimension sizeOf(Image image) {
+        return image == null ? new Dimension() : new Dimension(image.getWidth(null), image.getHeight(null));
+    }
+
+    // True if the photo has no stroke and no text
+    public boolean isEmpty() {
+        return strokes.getStrokeCount() == 0 && textAnnotations.isEmpty();
+    }
+
     public List<TextAnnotation> getAnnotations() {
         return Collections.unmodifiableList(textAnnotations);
     }
 
     public void addAnnotation(TextAnnotation textAnnotation) {
-        textAnnotation.addChangeListener(e -> fireChangeListeners());
+        int index = textAnnotations.size();
+        ChangeListener changeListener = e -> changed(AnnotationChangeEvent.regionOf(e), PhotoUI.NOT_SET, index);
+        AnnotationOperation.Listener operationListener = operation -> performed(operation.withIndex(index));
+        textAnnotation.addChangeListener(changeListener);
+        textAnnotation.addOperationListener(operationListener);
+        textChangeListeners.add(changeListener);
+        textOperationListeners.add(operationListener);
         this.textAnnotations.add(textAnnotation);
-        this.fireChangeListeners();
+        performed(AnnotationOperation.addText(textAnnotation.getX(), textAnnotation.getY(), textAnnotation.getColor(),
+                textAnnotation.getText()));
+        changed(null, PhotoUI.NOT_SET, index);
     }
 
-    public List<Point> getDrawingPoints() {
-        return Collections.unmodifiableList(drawingPoints);
+    // Removes the text added last, the others keep their index
+    public void removeLastAnnotation() {
+        int index = textAnnotations.size() - 1;
+        TextAnnotation textAnnotation = textAnnotations.remove(index);
+        textAnnotation.removeChangeListener(textChangeListeners.remove(index));
+        textAnnotation.removeOperationListener(textOperationListeners.remove(index));
+        performed(AnnotationOperation.removeLastText(textAnnotation.getX(), textAnnotation.getY(),
+                textAnnotation.getColor(), textAnnotation.getText()));
+        // The indexes of the items drawn have changed, the whole photo is drawn again
+        changed(null, PhotoUI.NOT_SET, PhotoUI.NOT_SET);
     }
 
+    public StrokeStore getStrokes() {
+        return strokes;
+    }
+
+    // Adds the point to the line that is being drawn, a new line is started if there is none
     public void addPoint(Point point, Color color) {
-        ColorPoint cp = new ColorPoint(point.x, point.y, color);
-        cp.addChangeListener(e -> fireChangeListeners());
-        this.drawingPoints.add(cp);
-        fireChangeListeners();
+        addPoint(point, color, DEFAULT_STROKE_WIDTH);
+    }
+
+    // The color and the width are the ones of a new line, they are ignored while a line is being drawn
+    public void addPoint(Point point, Color color, float width) {
+        if (!strokes.isStrokeOpen()) {
+            strokes.beginStroke(color, width);
+        }
+        strokes.addPoint(point.x, point.y);
+        performed(AnnotationOperation.addPoint(point.x, point.y, color, width));
+        int last = strokes.getPointCount() - 1;
+        if (last > strokes.getStrokeStart(strokes.getStrokeCount() - 1)) {
+            segmentGrid.insert(last - 1, strokes.getX(last - 1), strokes.getY(last - 1), strokes.getX(last), strokes.getY(last));
+            changed(segmentBounds(last - 1), strokes.getStrokeCount() - 1, PhotoUI.NOT_SET);
+        } else {
+            changed(new Rectangle(point.x, point.y, 1, 1), strokes.getStrokeCount() - 1, PhotoUI.NOT_SET);
+        }
+    }
+
+    // Moves the last point of the line that is being drawn
+    public void replaceLastPoint(Point point) {
+        int last = strokes.getPointCount() - 1;
+        int line = strokes.getStrokeCount() - 1;
+        performed(AnnotationOperation.replaceLastPoint(strokes.getX(last), strokes.getY(last), point.x, point.y));
+        if (last > strokes.getStrokeStart(line)) {
+            Rectangle region = segmentBounds(last - 1);
+            segmentGrid.remove(last - 1, strokes.getX(last - 1), strokes.getY(last - 1), strokes.getX(last), strokes.getY(last));
+            strokes.replaceLastPoint(point.x, point.y);
+            segmentGrid.insert(last - 1, strokes.getX(last - 1), strokes.getY(last - 1), strokes.getX(last), strokes.getY(last));
+            region.add(segmentBounds(last - 1));
+            changed(region, line, PhotoUI.NOT_SET);
+        } else {
+            Rectangle region = new Rectangle(strokes.getX(last), strokes.getY(last), 1, 1);
+            strokes.replaceLastPoint(point.x, point.y);
+            region.add(new Rectangle(point.x, point.y, 1, 1));
+            changed(region, line, PhotoUI.NOT_SET);
+        }
+    }
+
+    // Closes the line that is being drawn, the next point added will start a new one
+    public void endLine() {
+        if (strokes.isStrokeOpen()) {
+            strokes.endStroke();
+            performed(AnnotationOperation.endLine());
+        }
     }
 
-    public int getSelectedTextAnnotation(Point click, Point origin, double scaleX, double scaleY, FontMetrics font, Function<Point, Boolean> isPointInArea) {
+    // Adds a whole line at once, such as one read from a file; no line can be being drawn
+    public void addLine(int[] xs, int[] ys, int count, Color color, float width) {
+        if (strokes.isStrokeOpen()) {
+            throw new IllegalStateException("A line is being drawn");
+        }
+        strokes.beginStroke(color, width);
+        for (int i = 0; i < count; i++) {
+            strokes.addPoint(xs[i], ys[i]);
+        }
+        strokes.endStroke();
+        if (count > 0) {
+            int index = strokes.getStrokeCount() - 1;
+            performed(AnnotationOperation.addLine(xs, ys, count, color, width));
+            indexLine(index, true);
+            changed(lineBounds(index), index, PhotoUI.NOT_SET);
+        }
+    }
+
+    // Removes the line added last, the others keep their index; no line can be being drawn
+    public void removeLastLine() {
+        if (strokes.isStrokeOpen()) {
+            throw new IllegalStateException("A line is being drawn");
+        }
+        int index = strokes.getStrokeCount() - 1;
+        int start = strokes.getStrokeStart(index);
+        int[] xs = new int[strokes.getStrokeEnd(index) - start];
+        int[] ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = strokes.getX(start + i);
+            ys[i] = strokes.getY(start + i);
+        }
+        Color color = strokes.getColor(index);
+        float width = strokes.getWidth(index);
+        indexLine(index, false);
+        strokes.removeLastStroke();
+        performed(AnnotationOperation.removeLastLine(xs, ys, color, width));
+        changed(null, PhotoUI.NOT_SET, PhotoUI.NOT_SET);
+    }
+
+    public int getSelectedTextAnnotation(Point click, Point origin, double scaleX, double scaleY, FontMetrics font, Rectangle imageArea) {
+        PhotoEvents.HitTest event = new PhotoEvents.HitTest();
+        event.begin();
+        int selected = PhotoUI.NOT_SET;
         for(int i = 0; i < textAnnotations.size(); i++) {
-            if(textAnnotations.get(i).isAnnotationInPoint(click, origin, scaleX, scaleY, font, isPointInArea)) {
-                System.out.println("Hit");
-                return i;
-            } else {
-                System.out.println("Miss");
+            if(textAnnotations.get(i).isAnnotationInPoint(click, origin, scaleX, scaleY, font, imageArea)) {
+                selected = i;
+                break;
             }
         }
-        return PhotoUI.NOT_SET;
+        if(event.shouldCommit()) {
+            event.target = "text";
+            event.candidates = textAnnotations.size();
+            event.hit = selected;
+            event.commit();
+        }
+        return selected;
     }
 
-    public void drawText(Graphics g, Point origin, double scaleX, double scaleY, int imageHeight, Function<Point, Boolean> isPointInArea) {
-        for(TextAnnotation annotation: textAnnotations) {
-            annotation.draw(g, origin, scaleX, scaleY, imageHeight, isPointInArea);
+    public void drawText(Graphics g, Point origin, double scaleX, double scaleY, Rectangle imageArea, IntPredicate isTextDrawn) {
+        for(int i = 0; i < textAnnotations.size(); i++) {
+            if(isTextDrawn.test(i)) {
+                textAnnotations.get(i).draw(g, origin, scaleX, scaleY, imageArea);
+            }
         }
     }
 
-    public int getSelectedLine(Point click, Point origin, double scaleX, double scaleY, int offsetHit, Function<Point, Boolean> isPointInArea) {
-        int lineIndex = 0;
-        for(int i = 0; i < drawingPoints.size() - 1; i++) {
-            ColorPoint p = drawingPoints.get(i);
-            if(p.isBreakPoint()) {
-                lineIndex++;
-            } else {
-                if(!drawingPoints.get(i+1).isBreakPoint()) {
-                    Point startPoint = new Point((int) (p.x * scaleX + origin.x), (int) (p.y * scaleY + origin.y));
-                    p = drawingPoints.get(i+1);
-                    Point endPoint = new Point((int) (p.x * scaleX + origin.x), (int) (p.y * scaleY + origin.y));
-                    if(isClickInRangePoint(click, startPoint, endPoint, offsetHit)) {
-                        return lineIndex;
-                    }
-                }
+    public int getSelectedLine(Point click, Point origin, double scaleX, double scaleY, int offsetHit) {
+        // Only the segments around the click, converted in image coordinates, are tested
+        // One more screen pixel is added to cover the rounding of the projected points
+        int minX = (int) Math.floor((click.x - offsetHit - 1 - origin.x) / scaleX);
+        int maxX = (int) Math.ceil((click.x + offsetHit + 1 - origin.x) / scaleX);
+        int minY = (int) Math.floor((click.y - offsetHit - 1 - origin.y) / scaleY);
+        int maxY = (int) Math.ceil((click.y + offsetHit + 1 - origin.y) / scaleY);
+        PhotoEvents.HitTest event = new PhotoEvents.HitTest();
+        event.begin();
+        int[] selected = {Integer.MAX_VALUE};
+        segmentGrid.query(minX, minY, maxX, maxY, segment -> {
+            int startX = (int) (strokes.getX(segment) * scaleX + origin.x);
+            int startY = (int) (strokes.getY(segment) * scaleY + origin.y);
+            int endX = (int) (strokes.getX(segment + 1) * scaleX + origin.x);
+            int endY = (int) (strokes.getY(segment + 1) * scaleY + origin.y);
+            if(isClickInRangePoint(click.x, click.y, startX, startY, endX, endY, offsetHit)) {
+                // When lines overlap the oldest one is selected
+                selected[0] = Math.min(selected[0], strokes.getStrokeOf(segment));
             }
+        });
+        int line = selected[0] == Integer.MAX_VALUE ? PhotoUI.NOT_SET : selected[0];
+        if(event.shouldCommit()) {
+            event.target = "line";
+            event.candidates = strokes.getStrokeCount();
+            event.hit = line;
+            event.commit();
         }
-        return PhotoUI.NOT_SET;
+        return line;
     }
 
     public void moveLineAt(int index, Point click) {
-        int lineIndex = 0;
-        for(int i = 0; i < drawingPoints.size(); i++) {
-            ColorPoint p = drawingPoints.get(i);
-            if (lineIndex == index) {
-                double minDistance = calculateDistance(p, click);
-                ColorPoint closedPoint = p;
-                int firstIndex = i;
-                while(i < drawingPoints.size() && !p.isBreakPoint()) {
-                    double newDistance = calculateDistance(p, click);
-                    if(newDistance < minDistance) {
-                        minDistance = newDistance;
-                        closedPoint = p;
-                    }
-                    i++;
-                    p = drawingPoints.get(i);
-                }
-                int lastIndex = i;
-                movePoints(firstIndex, lastIndex, closedPoint, click);
-                fireChangeListeners();
-                return;
-            }
-            if (p.isBreakPoint()) {
-                lineIndex++;
+        if(index < 0 || index >= strokes.getStrokeCount()) {
+            return;
+        }
+        // The point of the line closest to the click is the one that follows the mouse
+        int closestPoint = strokes.getStrokeStart(index);
+        double minDistance = Double.MAX_VALUE;
+        for(int i = strokes.getStrokeStart(index); i < strokes.getStrokeEnd(index); i++) {
+            double distance = calculateDistance(strokes.getX(i), strokes.getY(i), click.x, click.y);
+            if(distance < minDistance) {
+                minDistance = distance;
+                closestPoint = i;
             }
         }
+        translateLine(index, click.x - strokes.getX(closestPoint), click.y - strokes.getY(closestPoint));
     }
 
-    private void movePoints(int startIndex, int endIndex, Point referencePoint, Point click) {
-        int deltaX = click.x - referencePoint.x;
-        int deltaY = click.y - referencePoint.y;
+    public void translateLine(int index, int dx, int dy) {
+        Rectangle region = lineBounds(index);
+        indexLine(index, false);
+        strokes.translateStroke(index, dx, dy);
+        indexLine(index, true);
+        performed(AnnotationOperation.translateLine(index, dx, dy));
+        // Both where the line was and where it is now have to be drawn again
+        region.add(lineBounds(index));
+        changed(region, index, PhotoUI.NOT_SET);
+    }
+
+    // Bounds in image coordinates of the segment starting at the point
+    private Rectangle segmentBounds(int point) {
+        Rectangle bounds = new Rectangle(strokes.getX(point), strokes.getY(point), 1, 1);
+        bounds.add(new Rectangle(strokes.getX(point + 1), strokes.getY(point + 1), 1, 1));
+        return bounds;
+    }
 
-        for(int i = startIndex; i < endIndex; i++) {
-            drawingPoints.get(i).x = drawingPoints.get(i).x + deltaX;
-            drawingPoints.get(i).y = drawingPoints.get(i).y + deltaY;
+    private Rectangle lineBounds(int index) {
+        return new Rectangle(strokes.getMinX(index), strokes.getMinY(index),
+                strokes.getMaxX(index) - strokes.getMinX(index) + 1, strokes.getMaxY(index) - strokes.getMinY(index) + 1);
+    }
+
+    private void indexLine(int index, boolean insert) {
+        for(int i = strokes.getStrokeStart(index); i < strokes.getStrokeEnd(index) - 1; i++) {
+            if(insert) {
+                segmentGrid.insert(i, strokes.getX(i), strokes.getY(i), strokes.getX(i + 1), strokes.getY(i + 1));
+            } else {
+                segmentGrid.remove(i, strokes.getX(i), strokes.getY(i), strokes.getX(i + 1), strokes.getY(i + 1));
+            }
         }
     }
 
     public static double calculateDistance(Point point1, Point point2) {
-        int x1 = point1.x;
-        int y1 = point1.y;
-        int x2 = point2.x;
-        int y2 = point2.y;
+        return calculateDistance(point1.x, point1.y, point2.x, point2.y);
+    }
 
+    public static double calculateDistance(int x1, int y1, int x2, int y2) {
         int deltaX = x2 - x1;
         int deltaY = y2 - y1;
 
@@ -141,61 +310,78 @@ public class PhotoModel {
     }
 
     public boolean isClickInRangePoint(Point click, Point lineStart, Point lineEnd, int offsetHit) {
+        return isClickInRangePoint(click.x, click.y, lineStart.x, lineStart.y, lineEnd.x, lineEnd.y, offsetHit);
+    }
+
+    public static boolean isClickInRangePoint(int clickX, int clickY, int startX, int startY, int endX, int endY, int offsetHit) {
         // Calculate the bounding box around the line with an offset
-        int minX = Math.min(lineStart.x, lineEnd.x) - offsetHit;
-        int maxX = Math.max(lineStart.x, lineEnd.x) + offsetHit;
-        int minY = Math.min(lineStart.y, lineEnd.y) - offsetHit;
-        int maxY = Math.max(lineStart.y, lineEnd.y) + offsetHit;
+        int minX = Math.min(startX, endX) - offsetHit;
+        int maxX = Math.max(startX, endX) + offsetHit;
+        int minY = Math.min(startY, endY) - offsetHit;
+        int maxY = Math.max(startY, endY) + offsetHit;
 
         // Check if the click point is within the bounding box
-        return click.x >= minX && click.x <= maxX && click.y >= minY && click.y <= maxY;
-    }
-
-    public void drawLines(Graphics g, Point origin, double scaleX, double scaleY, int indexSelected, Function<Point, Boolean> isPointInArea) {
-        int index = 0;
-        if(!drawingPoints.isEmpty()) {
-            ColorPoint start = drawingPoints.get(0);
-            for (ColorPoint point: drawingPoints) {
-                if(point.isBreakPoint()) {
-                    index++;
-                } else if(!start.isBreakPoint()) {
-                    // Assign the relative coordinate to the point that is going to be printed
-                    // In this way rescaling the image also rescale the lines
-                    Point drawingPoint = new Point((int)((point.x  * scaleX) + origin.x), (int)((point.y * scaleY) + origin.y));
-                    // Check if the new point is inside the picture area
-                    if (isPointInArea.apply(drawingPoint)) {
-                        g.setColor(index == indexSelected ? Color.GRAY : point.getColor());
-                        g.drawLine((int)((start.x * scaleX) + origin.x), (int)((start.y * scaleY) + origin.y), drawingPoint.x, drawingPoint.y);
-                    }
-                }
-                start = point;
+        return clickX >= minX && clickX <= maxX && clickY >= minY && clickY <= maxY;
+    }
+
+    public void drawLines(Graphics g, Point origin, double scaleX, double scaleY, int indexSelected, Rectangle imageArea, IntPredicate isLineDrawn) {
+        if(strokes.getStrokeCount() == 0) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g.create();
+        // Clipping to the picture area replaces the check of every single point
+        g2.clip(imageArea);
+        Rectangle clip = g2.getClipBounds();
+        float currentWidth = -1;
+        for (int line = 0; line < strokes.getStrokeCount(); line++) {
+            if (!isLineDrawn.test(line)) {
+                continue;
+            }
+            // Lines outside of the area being repainted are skipped using their cached bounds
+            int margin = (int) Math.ceil(strokes.getWidth(line));
+            int minX = (int)((strokes.getMinX(line) * scaleX) + origin.x) - margin;
+            int minY = (int)((strokes.getMinY(line) * scaleY) + origin.y) - margin;
+            int maxX = (int)((strokes.getMaxX(line) * scaleX) + origin.x) + margin;
+            int maxY = (int)((strokes.getMaxY(line) * scaleY) + origin.y) + margin;
+            if (maxX < clip.x || maxY < clip.y || minX > clip.x + clip.width || minY > clip.y + clip.height) {
+                continue;
+            }
+            if (strokes.getWidth(line) != currentWidth) {
+                currentWidth = strokes.getWidth(line);
+                g2.setStroke(new BasicStroke(currentWidth));
+            }
+            g2.setColor(line == indexSelected ? Color.GRAY : strokes.getColor(line));
+            int start = strokes.getStrokeStart(line);
+            int end = strokes.getStrokeEnd(line);
+            // Assign the relative coordinate to the point that is going to be printed
+            // In this way rescaling the image also rescale the lines
+            int previousX = (int)((strokes.getX(start) * scaleX) + origin.x);
+            int previousY = (int)((strokes.getY(start) * scaleY) + origin.y);
+            for (int i = start + 1; i < end; i++) {
+                int x = (int)((strokes.getX(i) * scaleX) + origin.x);
+                int y = (int)((strokes.getY(i) * scaleY) + origin.y);
+                // Single wide lines are drawn by Java2D as parallelograms, which is faster than stroking a whole path,
+                // see StrokeDrawingBenchmarks
+                g2.drawLine(previousX, previousY, x, y);
+                previousX = x;
+                previousY = y;
             }
         }
+        g2.dispose();
     }
 
     public void updateColorOfTextAt(int index, Color newColor) {
+        // The annotation notifies the change with its own region
         this.textAnnotations.get(index).setColor(newColor);
-        fireChangeListeners();
     }
 
     public void setColorOfLineAt(int index, Color newColor) {
-        int lineIndex = 0;
-        int i = 0;
-        while (i < drawingPoints.size()) {
-            ColorPoint p = drawingPoints.get(i);
-            if (lineIndex == index) {
-                if (!p.isBreakPoint()) {
-                    p.setColor(newColor);
-                } else {
-                    break;
-                }
-            }
-            if (p.isBreakPoint()) {
-                lineIndex++;
-            }
-            i++;
+        if(index >= 0 && index < strokes.getStrokeCount()) {
+            Color oldColor = strokes.getColor(index);
+            strokes.setColor(index, newColor);
+            performed(AnnotationOperation.setLineColor(index, oldColor, newColor));
+            changed(lineBounds(index), index, PhotoUI.NOT_SET);
         }
-        fireChangeListeners();
     }
 
     public void addChangeListener(ChangeListener listener) {
@@ -206,9 +392,82 @@ public class PhotoModel {
         changeListeners.remove(listener);
     }
 
+    // Listeners are told of every change of the annotations right after it is made, even in a batch
+    public void addOperationListener(AnnotationOperation.Listener listener) {
+        operationListeners.add(listener);
+    }
+
+    public void removeOperationListener(AnnotationOperation.Listener listener) {
+        operationListeners.remove(listener);
+    }
+
+    private void performed(AnnotationOperation operation) {
+        for (AnnotationOperation.Listener listener : operationListeners) {
+            listener.operationPerformed(operation);
+        }
+    }
+
+    // Runs the changes notifying the listeners only once at the end, with an event covering all of them
+    public void runBatched(Runnable changes) {
+        batchDepth++;
+        try {
+            changes.run();
+        } finally {
+            batchDepth--;
+            if (batchDepth == 0 && hasPendingChange) {
+                publishPendingChange();
+            }
+        }
+    }
+
     public void fireChangeListeners() {
+        fireChangeListeners(null);
+    }
+
+    // The region is in image coordinates, null when the whole photo has to be drawn again
+    public void fireChangeListeners(Rectangle region) {
+        changed(region, PhotoUI.NOT_SET, PhotoUI.NOT_SET);
+    }
+
+    private void changed(Rectangle region, int line, int text) {
+        if (region == null) {
+            pendingWholePhoto = true;
+        } else if (pendingRegion == null) {
+            pendingRegion = new Rectangle(region);
+        } else {
+            pendingRegion.add(region);
+        }
+        if (line != PhotoUI.NOT_SET) {
+            pendingLines.set(line);
+        }
+        if (text != PhotoUI.NOT_SET) {
+            pendingTexts.set(text);
+        }
+        hasPendingChange = true;
+        if (batchDepth == 0) {
+            publishPendingChange();
+        }
+    }
+
+    private void publishPendingChange() {
+        PhotoEvents.Notification notification = new PhotoEvents.Notification();
+        notification.begin();
+        boolean wholePhoto = pendingWholePhoto;
+        // The same event is shared by all the listeners
+        AnnotationChangeEvent event = new AnnotationChangeEvent(this, pendingWholePhoto ? null : pendingRegion, pendingLines, pendingTexts);
+        hasPendingChange = false;
+        pendingRegion = null;
+        pendingWholePhoto = false;
+        pendingLines = new BitSet();
+        pendingTexts = new BitSet();
         for (ChangeListener listener: changeListeners) {
-            listener.stateChanged(new ChangeEvent(this));
+            listener.stateChanged(event);
+        }
+        if (notification.shouldCommit()) {
+            notification.source = "PhotoModel";
+            notification.listeners = changeListeners.size();
+            notification.wholePhoto = wholePhoto;
+            notification.commit();
         }
     }
 }
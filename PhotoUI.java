@@ -1,8 +1,13 @@
+import javax.swing.event.ChangeListener;
 import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.List;
 
 public class PhotoUI {
@@ -17,12 +22,67 @@ public class PhotoUI {
     private boolean isTyping = false;
     private boolean isDrawing = false;
     static public final int NOT_SET = -1;
+    // Size in image pixels of the grid the regions decoded at full resolution are aligned to
+    static private final int TILE_GRID = 256;
+    // Extra pixels repainted around a changed region to cover the width of the strokes
+    static private final int REPAINT_MARGIN = (int) Math.ceil(PhotoModel.DEFAULT_STROKE_WIDTH) + 1;
+    // Pixels rendered in the annotation layer around the visible part of the image, so that small scrolls reuse it
+    static private final int LAYER_MARGIN = 256;
+    // Largest annotation layer, a bigger visible area has its annotations drawn directly
+    static private final long MAX_LAYER_PIXELS = 4096L * 4096;
     private int currentTextIndex = NOT_SET;
     private int currentLineIndex = NOT_SET;
-    private int cursorPosition = NOT_SET;
+    private final StrokeSimplifier strokeSimplifier;
+    private ScaledImageCache scaledImages;
+
+    // Committed strokes and texts already rendered at the current scale, the items being edited are drawn on top.
+    // The layer only covers the visible part of the image, its buffer is kept as long as it is big enough
+    private BufferedImage annotationLayer;
+    private boolean annotationLayerValid = false;
+    private Rectangle layerBounds = new Rectangle();     // part of the component the layer covers
+    private Rectangle layerImageArea = new Rectangle();  // image area the layer was rendered for
+    private int layerLiveText = NOT_SET;
+    private int layerLiveLine = NOT_SET;
+    private int layerOpenLine = NOT_SET;
+    private final ChangeListener modelListener;
+    // Metrics of the text as the last paint drew it, the hit-tests measure with the same render context
+    private FontMetrics textMetrics;
 
     public PhotoUI(PhotoComponent c){
+        strokeSimplifier = new StrokeSimplifier(c.getModel());
         addListeners(c);
+        // Changes of the live items do not touch the layer, they are drawn on top of it
+        modelListener = e -> {
+            // An undo can remove the item being edited
+            if(currentTextIndex >= c.getModel().getAnnotations().size()) {
+                currentTextIndex = NOT_SET;
+                isTyping = false;
+                mousePressed = false;
+            }
+            if(currentLineIndex >= c.getModel().getStrokes().getStrokeCount()) {
+                currentLineIndex = NOT_SET;
+            }
+            if(!(e instanceof AnnotationChangeEvent) || !((AnnotationChangeEvent) e).isLimitedTo(
+                    i -> i == layerLiveLine || i == layerOpenLine, i -> i == layerLiveText)) {
+                invalidateAnnotationLayer();
+            }
+        };
+        c.getModel().addChangeListener(modelListener);
+    }
+
+    // Stops listening to the model, which can outlive the component
+    public void uninstall(PhotoComponent c) {
+        c.getModel().removeChangeListener(modelListener);
+    }
+
+    // Tolerance in image pixels used to drop the points of a stroke that do not change its shape
+    public void setSimplificationTolerance(double tolerance) {
+        strokeSimplifier.setTolerance(tolerance);
+    }
+
+    // Forces the annotation layer to be rendered again at the next paint
+    public void invalidateAnnotationLayer() {
+        annotationLayerValid = false;
     }
 
     public void addListeners(PhotoComponent c) {
@@ -40,92 +100,83 @@ public class PhotoUI {
             // Takes care of handling the creation of a new text
             @Override
             public void mousePressed(MouseEvent e) {
-                if(c.isFlipped()) {
-                    if (isTyping || cursorPosition != NOT_SET) {
+                // Every press starts a new edit: a line drawn, a drag or the text typed after it
+                c.getHistory().endEdit();
+                // A single notification for all the changes caused by the event
+                c.getModel().runBatched(() -> {
+                    if(c.isFlipped()) {
                         isTyping = false;
-                        // Removing the "|" cursor before publishing
+                        // The text that was being edited loses the cursor
                         if(currentTextIndex != NOT_SET) {
-                            String text = c.getModel().getAnnotations().get(currentTextIndex).getText();
-                            text = text.substring(0, cursorPosition) + text.substring(cursorPosition + 1);
                             c.getModel().getAnnotations().get(currentTextIndex).setHasCursor(false);
-                            c.getModel().getAnnotations().get(currentTextIndex).setText(text);
-                            cursorPosition = NOT_SET;
                         }
-                    }
 
-                    // Check if the insert point is inside the drawing area
-                    if (isPointInArea(e.getPoint())) {
-                        // Setting the point where the click happen as the insert point
-                        insertionPoint = new Point((int)((e.getX() - origin.x) / scaleX), (int)((e.getY() - origin.y) / scaleY));
-                        FontMetrics font = c.getGraphics().getFontMetrics();
-                        List<TextAnnotation> textAnnotations = c.getModel().getAnnotations();
-                        // Resetting the current text that is being edited
-                        currentTextIndex = NOT_SET;
-                        // Check if the click happen over a text that is being printed
-                        setCurrentEditingText(c, e.getPoint(), textAnnotations, font);
-                        setCurrentEditingLine(c, e.getPoint());
-
-                        mousePressed = true;
+                        // Check if the insert point is inside the drawing area
+                        if (isPointInArea(e.getPoint())) {
+                            // Setting the point where the click happen as the insert point
+                            insertionPoint = new Point((int)((e.getX() - origin.x) / scaleX), (int)((e.getY() - origin.y) / scaleY));
+                            FontMetrics font = getTextMetrics(c);
+                            List<TextAnnotation> textAnnotations = c.getModel().getAnnotations();
+                            // Resetting the current text that is being edited
+                            currentTextIndex = NOT_SET;
+                            // Check if the click happen over a text that is being printed
+                            setCurrentEditingText(c, e.getPoint(), textAnnotations, font);
+                            setCurrentEditingLine(c, e.getPoint());
+
+                            mousePressed = true;
+                        }
                     }
-                }
+                });
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
                 isDrawing = false;
-                if (isPointInArea(e.getPoint())) {
-                    c.getModel().addPoint(PhotoModel.BREAK_POINT, c.getColor());
+                boolean strokeDrawn = strokeSimplifier.isDrawing();
+                strokeSimplifier.finish(c.getColor());
+                if (strokeDrawn) {
+                    c.setStrokeReduction(strokeSimplifier.getReductionRatio());
+                    c.getHistory().endEdit();
                 }
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (isPointInArea(e.getPoint())) {
-                    Point p = new Point((int)((e.getX() - origin.x) / scaleX), (int)((e.getY() - origin.y) / scaleY));
-                    if(currentTextIndex != NOT_SET) {
-                        TextAnnotation annotation =  c.getModel().getAnnotations().get(currentTextIndex);
-                        if(!annotation.getText().isBlank()) {
-                            FontMetrics font = c.getGraphics().getFontMetrics();
-                            p.x = (int)((p.x * scaleX - font.stringWidth(annotation.getText()) / 2) / scaleX);
-                            c.getModel().getAnnotations().get(currentTextIndex).setOrigin(p);
+                // A single notification for all the changes caused by the event
+                c.getModel().runBatched(() -> {
+                    if (isPointInArea(e.getPoint())) {
+                        Point p = new Point((int)((e.getX() - origin.x) / scaleX), (int)((e.getY() - origin.y) / scaleY));
+                        if(currentTextIndex != NOT_SET) {
+                            TextAnnotation annotation =  c.getModel().getAnnotations().get(currentTextIndex);
+                            if(!annotation.getText().isBlank()) {
+                                FontMetrics font = getTextMetrics(c);
+                                p.x = (int)((p.x * scaleX - font.stringWidth(annotation.getText()) / 2) / scaleX);
+                                c.getModel().getAnnotations().get(currentTextIndex).setOrigin(p);
+                            }
+                        } else if(currentLineIndex != NOT_SET) {
+                            c.getModel().moveLineAt(currentLineIndex, p);
+                        } else {
+                            strokeSimplifier.addPoint(p, c.getColor());
                         }
-                    } else if(currentLineIndex != NOT_SET) {
-                        c.getModel().moveLineAt(currentLineIndex, p);
-                    } else {
-                        c.getModel().addPoint(p, c.getColor());
                     }
-                }
+                });
             }
         };
 
         KeyAdapter keyAdapter = new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if(mousePressed && !isDrawing) {
-                    if(currentTextIndex != NOT_SET) {
-                        String text = c.getModel().getAnnotations().get(currentTextIndex).getText();
-                        if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-                            if(cursorPosition > 0 && !text.substring(0, cursorPosition).isBlank()) {
-                                text = text.substring(0, cursorPosition - 1) + "|" + text.charAt(cursorPosition - 1) + text.substring(cursorPosition + 1);
-                                c.getModel().getAnnotations().get(currentTextIndex).setHasCursor(true);
-                                c.getModel().getAnnotations().get(currentTextIndex).setText(text);
-                                cursorPosition--;
-                            }
-                        } else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-                            if (cursorPosition < (text.length() - 1)) {
-                                text = text.substring(0, cursorPosition) + text.charAt(cursorPosition + 1) + "|" + text.substring(cursorPosition + 2);
-                                c.getModel().getAnnotations().get(currentTextIndex).setHasCursor(true);
-                                c.getModel().getAnnotations().get(currentTextIndex).setText(text);
-                                cursorPosition++;
-                            }
+                // A single notification for all the changes caused by the event
+                c.getModel().runBatched(() -> {
+                    // A modifier or a shortcut alone does not start a text, its binding handles it
+                    if(mousePressed && !isDrawing && (isTyping || startsText(e))) {
+                        if(!isTyping) {
+                            createNewAnnotation(e, c.getModel(), c.getColor());
+                            isTyping = true;
                         }
+                        editAnnotation(e, c.getModel());
                     }
-                    if(!isTyping) {
-                        createNewAnnotation(e, c.getModel(), c.getColor());
-                        isTyping = true;
-                    }
-                    editAnnotation(e, c.getModel());
-                }
+                });
             }
         };
 
@@ -135,52 +186,174 @@ public class PhotoUI {
         c.addKeyListener(keyAdapter);
     }
 
+    // Keys that start a text: a character or a paste. Modifiers alone have no character; with Ctrl or Meta the key is
+    // a shortcut, except with AltGr, reported as Ctrl and Alt on some systems, which types characters
+    private static boolean startsText(KeyEvent e) {
+        boolean shortcut = e.isMetaDown() || (e.isControlDown() && !e.isAltDown() && !e.isAltGraphDown());
+        if(shortcut) {
+            return e.getKeyCode() == KeyEvent.VK_V;
+        }
+        return e.getKeyChar() != KeyEvent.CHAR_UNDEFINED && !Character.isISOControl(e.getKeyChar());
+    }
+
     private void createNewAnnotation(KeyEvent e, PhotoModel model, Color color) {
         if(currentTextIndex == NOT_SET) {
-            String text = (e.getKeyChar() + "").concat("|");
-            model.addAnnotation(new TextAnnotation(text, insertionPoint, color));
+            model.addAnnotation(new TextAnnotation("", insertionPoint, color));
             currentTextIndex = model.getAnnotations().size() - 1;
-            cursorPosition = 1;
             model.getAnnotations().get(currentTextIndex).setHasCursor(true);
         }
     }
 
     private void editAnnotation(KeyEvent e, PhotoModel model) {
-        String text = model.getAnnotations().get(currentTextIndex).getText();
-        if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
-            if(!text.substring(0, cursorPosition).isEmpty()) {
-                text = text.substring(0, cursorPosition - 1) + text.substring(cursorPosition);
-                model.getAnnotations().get(currentTextIndex).setHasCursor(true);
-                cursorPosition--;
-            }
-        } else {
-            if(Character.isDefined(e.getKeyChar()) && !Character.isISOControl(e.getKeyChar())) {
-                String cursor = "|";
-                text = text.substring(0, cursorPosition) +
-                        e.getKeyChar() + cursor +
-                        text.substring(cursorPosition + 1);
-                cursorPosition++;
-                model.getAnnotations().get(currentTextIndex).setHasCursor(true);
+        TextAnnotation annotation = model.getAnnotations().get(currentTextIndex);
+        if (e.getKeyCode() == KeyEvent.VK_LEFT) {
+            annotation.moveCaret(-1, e.isShiftDown());
+        } else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
+            annotation.moveCaret(1, e.isShiftDown());
+        } else if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            annotation.deleteBackward();
+        } else if (e.getKeyCode() == KeyEvent.VK_V && (e.isControlDown() || e.isMetaDown())) {
+            // The whole clipboard is inserted as a single edit
+            String pasted = readClipboard();
+            if(pasted != null && !pasted.isEmpty()) {
+                annotation.insert(pasted);
             }
+        } else if(Character.isDefined(e.getKeyChar()) && !Character.isISOControl(e.getKeyChar())) {
+            annotation.insert(String.valueOf(e.getKeyChar()));
+        }
+    }
+
+    private String readClipboard() {
+        try {
+            return (String) Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
+        } catch (UnsupportedFlavorException | IOException | IllegalStateException | HeadlessException e) {
+            return null;
         }
-        model.getAnnotations().get(currentTextIndex).setText(text);
     }
 
     public void paint(Graphics2D g, PhotoComponent c) {
+        PhotoEvents.Paint event = new PhotoEvents.Paint();
+        event.begin();
+        boolean layerRendered = false;
         computeImageScaling(c);
+        textMetrics = g.getFontMetrics(TextAnnotation.FONT);
 
         Stroke stroke = new BasicStroke(6.0f); // Change 2.0f to your desired stroke size
         g.setStroke(stroke);
 
-        Image image = c.getModel().getImage();
-        g.drawImage(image, origin.x, origin.y, imageWidth, imageHeight, null);
-        if(c.isFlipped()) {
-            // Draw the strokes
-            c.getModel().drawLines(g, origin, scaleX, scaleY, currentLineIndex, this::isPointInArea);
-            // Draw the text
-            c.getModel().drawText(g, origin, scaleX, scaleY, imageHeight, this::isPointInArea);
+        drawImage(g, c);
+        if(c.isFlipped() && imageWidth > 0 && imageHeight > 0) {
+            PhotoModel model = c.getModel();
+            Rectangle imageArea = new Rectangle(origin.x, origin.y, imageWidth, imageHeight);
+            int liveText = currentTextIndex;
+            int liveLine = currentLineIndex;
+            int openLine = model.getStrokes().isStrokeOpen() ? model.getStrokes().getStrokeCount() - 1 : NOT_SET;
+            Rectangle visible = c.getVisibleRect().intersection(imageArea);
+            if(!visible.isEmpty() && (long) visible.width * visible.height <= MAX_LAYER_PIXELS) {
+                if(!annotationLayerValid || annotationLayer == null
+                        || !imageArea.equals(layerImageArea) || !layerBounds.contains(visible)
+                        || liveText != layerLiveText || liveLine != layerLiveLine || openLine != layerOpenLine) {
+                    renderAnnotationLayer(g, c, imageArea, visible, liveText, liveLine, openLine);
+                    layerRendered = true;
+                }
+                g.drawImage(annotationLayer, layerBounds.x, layerBounds.y, null);
+            } else {
+                model.drawLines(g, origin, scaleX, scaleY, currentLineIndex, imageArea, i -> i != liveLine && i != openLine);
+                model.drawText(g, origin, scaleX, scaleY, imageArea, i -> i != liveText);
+            }
+
+            // Draw the strokes and the text that are being edited
+            model.drawLines(g, origin, scaleX, scaleY, currentLineIndex, imageArea, i -> i == liveLine || i == openLine);
+            model.drawText(g, origin, scaleX, scaleY, imageArea, i -> i == liveText);
             c.invalidate();
         }
+        if(event.shouldCommit()) {
+            PhotoModel model = c.getModel();
+            event.strokes = model.getStrokes().getStrokeCount();
+            event.points = model.getStrokes().getPointCount();
+            event.annotations = model.getAnnotations().size();
+            event.layerRendered = layerRendered;
+            Rectangle clip = g.getClipBounds();
+            event.clip = clip == null ? null : clip.width + "x" + clip.height + " at " + clip.x + "," + clip.y;
+            event.commit();
+        }
+    }
+
+    // Draws the copy of the photo scaled to the current size, until it is ready the full image is scaled while drawing
+    private void drawImage(Graphics2D g, PhotoComponent c) {
+        Image image = c.getModel().getImage();
+        if(scaledImages == null || scaledImages.getSource() != image) {
+            scaledImages = new ScaledImageCache(image);
+        }
+        BufferedImage scaled = imageWidth > 0 && imageHeight > 0 && c.isImageComplete()
+                ? scaledImages.get(imageWidth, imageHeight, c::repaint) : null;
+        if(scaled != null) {
+            g.drawImage(scaled, origin.x, origin.y, null);
+        } else {
+            g.drawImage(image, origin.x, origin.y, imageWidth, imageHeight, null);
+        }
+        // A subsampled image shown bigger than it is gets the visible part decoded again with more pixels
+        if(c.getRegionLoader() != null && c.isImageComplete() && image.getWidth(null) < imageWidth) {
+            drawDetailTile(g, c);
+        }
+    }
+
+    private void drawDetailTile(Graphics2D g, PhotoComponent c) {
+        Rectangle visible = c.getVisibleRect().intersection(new Rectangle(origin.x, origin.y, imageWidth, imageHeight));
+        if(visible.isEmpty()) {
+            return;
+        }
+        // The region is aligned on a grid so that small scrolls reuse the same tile
+        int minX = Math.floorDiv((int) ((visible.x - origin.x) / scaleX), TILE_GRID) * TILE_GRID;
+        int minY = Math.floorDiv((int) ((visible.y - origin.y) / scaleY), TILE_GRID) * TILE_GRID;
+        int maxX = (int) Math.ceil((visible.x + visible.width - origin.x) / scaleX / TILE_GRID) * TILE_GRID;
+        int maxY = (int) Math.ceil((visible.y + visible.height - origin.y) / scaleY / TILE_GRID) * TILE_GRID;
+        Rectangle region = new Rectangle(minX, minY, maxX - minX, maxY - minY)
+                .intersection(new Rectangle(0, 0, c.getModel().getImageWidth(), c.getModel().getImageHeight()));
+        int subsampling = Math.max(1, (int) (1 / scaleX));
+        BufferedImage tile = c.getRegionLoader().getTile(region, subsampling, c::repaint);
+        if(tile != null) {
+            g.drawImage(tile, (int) (region.x * scaleX) + origin.x, (int) (region.y * scaleY) + origin.y,
+                    (int) (region.width * scaleX), (int) (region.height * scaleY), null);
+        }
+    }
+
+    private void renderAnnotationLayer(Graphics2D g, PhotoComponent c, Rectangle imageArea, Rectangle visible,
+                                       int liveText, int liveLine, int openLine) {
+        Rectangle area = new Rectangle(visible);
+        area.grow(LAYER_MARGIN, LAYER_MARGIN);
+        area = area.intersection(imageArea);
+        if((long) area.width * area.height > MAX_LAYER_PIXELS) {
+            area = visible;
+        }
+        if(annotationLayer == null || annotationLayer.getWidth() < area.width || annotationLayer.getHeight() < area.height) {
+            GraphicsConfiguration configuration = c.getGraphicsConfiguration();
+            annotationLayer = configuration != null
+                    ? configuration.createCompatibleImage(area.width, area.height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB);
+        }
+        layerBounds = new Rectangle(area.x, area.y, annotationLayer.getWidth(), annotationLayer.getHeight());
+        layerImageArea = imageArea;
+        Graphics2D layerGraphics = annotationLayer.createGraphics();
+        layerGraphics.setComposite(AlphaComposite.Clear);
+        layerGraphics.fillRect(0, 0, annotationLayer.getWidth(), annotationLayer.getHeight());
+        layerGraphics.setComposite(AlphaComposite.SrcOver);
+        layerGraphics.setRenderingHints(g.getRenderingHints());
+        layerGraphics.setStroke(g.getStroke());
+        // The layer is drawn at the corner of the part it covers, so the component coordinates are shifted, and the
+        // lines outside of that part are skipped
+        layerGraphics.translate(-layerBounds.x, -layerBounds.y);
+        layerGraphics.clip(layerBounds);
+        // Draw the strokes
+        c.getModel().drawLines(layerGraphics, origin, scaleX, scaleY, currentLineIndex, imageArea, i -> i != liveLine && i != openLine);
+        // Draw the text
+        c.getModel().drawText(layerGraphics, origin, scaleX, scaleY, imageArea, i -> i != liveText);
+        layerGraphics.dispose();
+
+        annotationLayerValid = true;
+        layerLiveText = liveText;
+        layerLiveLine = liveLine;
+        layerOpenLine = openLine;
     }
 
     private void computeImageScaling(PhotoComponent c) {
@@ -188,8 +361,8 @@ public class PhotoUI {
         int componentHeight = c.getHeight();
 
         // Get the image dimensions
-        int imageWidth = c.getModel().getImage().getWidth(null);
-        int imageHeight = c.getModel().getImage().getHeight(null);
+        int imageWidth = c.getModel().getImageWidth();
+        int imageHeight = c.getModel().getImageHeight();
 
         // Calculate the scaling factors to fit the image within the component while maintaining aspect ratio
         scaleX = (double) componentWidth / imageWidth;
@@ -214,16 +387,25 @@ public class PhotoUI {
         this.origin.y = y0;
     }
 
+    private FontMetrics getTextMetrics(PhotoComponent c) {
+        if(textMetrics == null) {
+            // Not painted yet: the render context is made with the hints the component paints with
+            Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            g.setRenderingHints(PhotoComponent.createRenderingHints());
+            textMetrics = g.getFontMetrics(TextAnnotation.FONT);
+            g.dispose();
+        }
+        return textMetrics;
+    }
+
     private void setCurrentEditingText(PhotoComponent c, Point click, List<TextAnnotation> textAnnotations, FontMetrics font) {
         // Check if the click was over one of the text
         // If the area of the click is inside the area of text then we are editing the currentTextIndex string
-        currentTextIndex = c.getModel().getSelectedTextAnnotation(click, origin, scaleX, scaleY, font, this::isPointInArea);
+        currentTextIndex = c.getModel().getSelectedTextAnnotation(click, origin, scaleX, scaleY, font, new Rectangle(origin.x, origin.y, imageWidth, imageHeight));
         if(currentTextIndex != NOT_SET) {
-            if (!textAnnotations.get(currentTextIndex).hasCursor()) {
-                textAnnotations.get(currentTextIndex).setText(textAnnotations.get(currentTextIndex).getText().concat("|"));
-                textAnnotations.get(currentTextIndex).setHasCursor(true);
-            }
-            cursorPosition = textAnnotations.get(currentTextIndex).getText().length() - 1;
+            TextAnnotation annotation = textAnnotations.get(currentTextIndex);
+            annotation.setHasCursor(true);
+            annotation.setCaretPosition(annotation.getText().length(), false);
         }
     }
 
@@ -231,12 +413,27 @@ public class PhotoUI {
     private void setCurrentEditingLine(PhotoComponent c, Point click) {
         // Check if the click was over one of the text
         // If the area of the click is inside the area of text then we are editing the currentTextIndex string
-        currentLineIndex = c.getModel().getSelectedLine(click, origin, scaleX, scaleY, 5, this::isPointInArea);
-        if(currentTextIndex != NOT_SET) {
-            System.out.println("Hit stroke");
-        } else {
-            System.out.println("Miss stroke");
+        currentLineIndex = c.getModel().getSelectedLine(click, origin, scaleX, scaleY, 5);
+    }
+
+    // Converts a region of the photo in the area of the component to repaint, null when everything has to be repainted
+    public Rectangle getRepaintArea(Rectangle region) {
+        if(region == null || imageWidth == 0 || imageHeight == 0) {
+            return null;
+        }
+        double minX = Math.floor(region.x * scaleX + origin.x) - REPAINT_MARGIN;
+        double minY = Math.floor(region.y * scaleY + origin.y) - REPAINT_MARGIN;
+        double maxX = Math.ceil((region.x + (double) region.width) * scaleX + origin.x) + REPAINT_MARGIN;
+        double maxY = Math.ceil((region.y + (double) region.height) * scaleY + origin.y) + REPAINT_MARGIN;
+        // Nothing is drawn outside of the picture
+        minX = Math.max(minX, origin.x);
+        minY = Math.max(minY, origin.y);
+        maxX = Math.min(maxX, origin.x + imageWidth + 1);
+        maxY = Math.min(maxY, origin.y + imageHeight + 1);
+        if(maxX <= minX || maxY <= minY) {
+            return new Rectangle();
         }
+        return new Rectangle((int) minX, (int) minY, (int) (maxX - minX), (int) (maxY - minY));
     }
 
     public boolean isPointInArea(Point p) {
@@ -0,0 +1,68 @@
+import javax.imageio.ImageReader;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Decodes the part of a photo that is on screen at the resolution it is displayed at, when the image kept in memory
+// was decoded with a lower resolution. Only the last region asked is decoded and kept.
+public class RegionLoader {
+    private static final ExecutorService DECODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "region-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final Consumer<IOException> onError;
+    private volatile Rectangle requestedRegion;
+    private volatile int requestedSubsampling;
+    private Rectangle tileRegion;
+    private int tileSubsampling;
+    private BufferedImage tile;
+
+    // onError is called on the event thread when a region cannot be decoded
+    public RegionLoader(File file, Consumer<IOException> onError) {
+        this.file = file;
+        this.onError = onError;
+    }
+
+    // The tile decoded for the region with the subsampling, or null after asking for it; onReady runs on the event thread
+    public BufferedImage getTile(Rectangle region, int subsampling, Runnable onReady) {
+        if (tile != null && tileSubsampling == subsampling && tileRegion.equals(region)) {
+            return tile;
+        }
+        if (region.equals(requestedRegion) && subsampling == requestedSubsampling) {
+            return null;
+        }
+        requestedRegion = new Rectangle(region);
+        requestedSubsampling = subsampling;
+        DECODER.execute(() -> {
+            if (!region.equals(requestedRegion) || subsampling != requestedSubsampling) {
+                return;
+            }
+            try {
+                ImageReader reader = ImageDecoder.open(file);
+                try {
+                    BufferedImage result = ImageDecoder.read(reader, region, subsampling);
+                    SwingUtilities.invokeLater(() -> {
+                        tile = result;
+                        tileRegion = region;
+                        tileSubsampling = subsampling;
+                        onReady.run();
+                    });
+                } finally {
+                    ImageDecoder.close(reader);
+                }
+            } catch (IOException e) {
+                // The photo keeps being drawn from the lower resolution image, the region is not asked again
+                SwingUtilities.invokeLater(() -> onError.accept(e));
+            }
+        });
+        return null;
+    }
+}
@@ -0,0 +1,111 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Copies of a photo already scaled to the sizes it is displayed at, so that painting is a 1:1 copy.
+// Missing sizes are scaled on a background thread, in the meantime the caller draws the full image scaled on the fly.
+// The copies are evicted, least recently used first, when they take more than the byte budget.
+public class ScaledImageCache {
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private static final ExecutorService SCALER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-scaler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final Image source;
+    private final long budgetBytes;
+    private final Map<Dimension, BufferedImage> scaledImages = new LinkedHashMap<>(8, 0.75f, true);
+    private long usedBytes = 0;
+    // Only the last size asked is scaled, sizes passed through while resizing the window are skipped
+    private volatile Dimension requestedSize;
+    private Dimension scheduledSize;
+
+    public ScaledImageCache(Image source) {
+        this(source, DEFAULT_BUDGET_BYTES);
+    }
+
+    public ScaledImageCache(Image source, long budgetBytes) {
+        this.source = source;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public Image getSource() {
+        return source;
+    }
+
+    // Returns the copy at the size, or null after scheduling it; onReady is called on the event thread when it is done
+    public BufferedImage get(int width, int height, Runnable onReady) {
+        Dimension size = new Dimension(width, height);
+        BufferedImage scaled = scaledImages.get(size);
+        if (scaled != null) {
+            return scaled;
+        }
+        requestedSize = size;
+        if (!size.equals(scheduledSize) && (long) width * height * 4 <= budgetBytes) {
+            scheduledSize = size;
+            SCALER.execute(() -> {
+                BufferedImage result = size.equals(requestedSize) ? scale(source, width, height) : null;
+                SwingUtilities.invokeLater(() -> {
+                    if (size.equals(scheduledSize)) {
+                        scheduledSize = null;
+                    }
+                    if (result != null) {
+                        put(size, result);
+                        onReady.run();
+                    }
+                });
+            });
+        }
+        return null;
+    }
+
+    private void put(Dimension size, BufferedImage image) {
+        scaledImages.put(size, image);
+        usedBytes += bytesOf(image);
+        Iterator<Map.Entry<Dimension, BufferedImage>> iterator = scaledImages.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()) {
+            Map.Entry<Dimension, BufferedImage> eldest = iterator.next();
+            if (eldest.getKey().equals(size)) {
+                continue;
+            }
+            usedBytes -= bytesOf(eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    // Halves the image until it is less than twice the target, then scales to the target: a mip chain
+    // keeps the quality of a bilinear filter on large reductions
+    static BufferedImage scale(Image source, int width, int height) {
+        int currentWidth = source.getWidth(null);
+        int currentHeight = source.getHeight(null);
+        boolean opaque = source instanceof BufferedImage && ((BufferedImage) source).getTransparency() == Transparency.OPAQUE;
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        Image current = source;
+        do {
+            int nextWidth = currentWidth / 2 >= width ? currentWidth / 2 : width;
+            int nextHeight = currentHeight / 2 >= height ? currentHeight / 2 : height;
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            g.dispose();
+            current = next;
+            currentWidth = nextWidth;
+            currentHeight = nextHeight;
+        } while (currentWidth != width || currentHeight != height);
+        return (BufferedImage) current;
+    }
+}
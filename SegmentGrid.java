@@ -0,0 +1,110 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+// Uniform grid over the stroke segments, in image coordinates.
+// A segment is identified by the index of its first point in the StrokeStore and is registered in every cell
+// touched by its bounding box, so a click only has to look at the segments of the cells around it.
+public class SegmentGrid {
+    public static final int DEFAULT_CELL_SIZE = 32;
+
+    private final int cellSize;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    // Consecutive segments of a stroke mostly fall in the same cell, the last one is kept to skip the lookup
+    private long lastKey;
+    private Cell lastCell;
+
+    private static class Cell {
+        int[] segments = new int[4];
+        int size = 0;
+
+        void add(int segment) {
+            if (size == segments.length) {
+                segments = Arrays.copyOf(segments, size * 2);
+            }
+            segments[size++] = segment;
+        }
+
+        void remove(int segment) {
+            for (int i = 0; i < size; i++) {
+                if (segments[i] == segment) {
+                    // Order inside a cell does not matter, the last one fills the hole
+                    segments[i] = segments[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    public SegmentGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SegmentGrid(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void insert(int segment, int x1, int y1, int x2, int y2) {
+        int minCellX = cellOf(Math.min(x1, x2)), maxCellX = cellOf(Math.max(x1, x2));
+        int minCellY = cellOf(Math.min(y1, y2)), maxCellY = cellOf(Math.max(y1, y2));
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                long key = key(cx, cy);
+                if (lastCell == null || lastKey != key) {
+                    lastCell = cells.computeIfAbsent(key, k -> new Cell());
+                    lastKey = key;
+                }
+                lastCell.add(segment);
+            }
+        }
+    }
+
+    // The coordinates must be the same ones used when the segment was inserted
+    public void remove(int segment, int x1, int y1, int x2, int y2) {
+        int minCellX = cellOf(Math.min(x1, x2)), maxCellX = cellOf(Math.max(x1, x2));
+        int minCellY = cellOf(Math.min(y1, y2)), maxCellY = cellOf(Math.max(y1, y2));
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                Long key = key(cx, cy);
+                Cell cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(segment);
+                    if (cell.size == 0) {
+                        cells.remove(key);
+                        if (cell == lastCell) {
+                            lastCell = null;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Visits the segments registered in the cells overlapping the rectangle, a segment can be visited more than once
+    public void query(int minX, int minY, int maxX, int maxY, IntConsumer visitor) {
+        for (int cx = cellOf(minX); cx <= cellOf(maxX); cx++) {
+            for (int cy = cellOf(minY); cy <= cellOf(maxY); cy++) {
+                Cell cell = cells.get(key(cx, cy));
+                if (cell != null) {
+                    for (int i = 0; i < cell.size; i++) {
+                        visitor.accept(cell.segments[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        lastCell = null;
+    }
+
+    private int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
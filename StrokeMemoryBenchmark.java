@@ -0,0 +1,91 @@
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares the heap used per drawn point by the old List<ColorPoint> layout and by the StrokeStore.
+// Run with: java StrokeMemoryBenchmark [points] [pointsPerStroke]
+public class StrokeMemoryBenchmark {
+
+    // Same layout as the ColorPoint that PhotoModel used to keep for every point
+    private static class LegacyColorPoint extends Point {
+        private static final long serialVersionUID = 1L;
+
+        private Color color;
+        private List<ChangeListener> changeListeners = new ArrayList<>();
+
+        LegacyColorPoint(int x, int y, Color color) {
+            super(x, y);
+            this.color = color;
+        }
+
+        void addChangeListener(ChangeListener listener) {
+            changeListeners.add(listener);
+        }
+    }
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int pointsPerStroke = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        // Warm up so that the classes are loaded before measuring
+        buildLegacy(1000, pointsPerStroke);
+        buildStore(1000, pointsPerStroke);
+
+        long before = usedHeap();
+        List<LegacyColorPoint> legacy = buildLegacy(points, pointsPerStroke);
+        double legacyBytes = (double) (usedHeap() - before) / points;
+        System.out.printf("List<ColorPoint>: %.1f bytes per point (%d points)%n", legacyBytes, legacy.size());
+        legacy = null;
+
+        before = usedHeap();
+        StrokeStore store = buildStore(points, pointsPerStroke);
+        double storeBytes = (double) (usedHeap() - before) / points;
+        System.out.printf("StrokeStore:      %.1f bytes per point (%d points, %d strokes)%n",
+                storeBytes, store.getPointCount(), store.getStrokeCount());
+        System.out.printf("Reduction:        %.1fx%n", legacyBytes / storeBytes);
+    }
+
+    private static List<LegacyColorPoint> buildLegacy(int points, int pointsPerStroke) {
+        List<LegacyColorPoint> drawingPoints = new ArrayList<>();
+        int[] notifications = new int[1];
+        for (int i = 0; i < points; i++) {
+            LegacyColorPoint cp = new LegacyColorPoint(i % 4000, i % 3000, Color.BLACK);
+            // Every point captured its own lambda towards the model
+            cp.addChangeListener(e -> notifications[0]++);
+            drawingPoints.add(cp);
+            if (i % pointsPerStroke == pointsPerStroke - 1) {
+                drawingPoints.add(new LegacyColorPoint(-1, -1, Color.BLACK));
+            }
+        }
+        return drawingPoints;
+    }
+
+    private static StrokeStore buildStore(int points, int pointsPerStroke) {
+        StrokeStore store = new StrokeStore();
+        for (int i = 0; i < points; i++) {
+            if (!store.isStrokeOpen()) {
+                store.beginStroke(Color.BLACK, PhotoModel.DEFAULT_STROKE_WIDTH);
+            }
+            store.addPoint(i % 4000, i % 3000);
+            if (i % pointsPerStroke == pointsPerStroke - 1) {
+                store.endStroke();
+            }
+        }
+        store.endStroke();
+        return store;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
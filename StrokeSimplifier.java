@@ -0,0 +1,147 @@
+import java.awt.*;
+
+// Simplifies a stroke while it is being drawn, before its points reach the PhotoModel.
+// Points closer than the tolerance to the last kept point are dropped (radial distance) and a run of points that
+// stays within the tolerance of a straight segment is stored as that segment only. The last point of the line is
+// provisional: it is moved forward as long as the skipped points stay close enough to the segment.
+// The tolerance is in image pixels.
+public class StrokeSimplifier {
+    public static final double DEFAULT_TOLERANCE = 1.0;
+    // Longest run of skipped points checked against the segment, to keep every new point O(1)
+    private static final int MAX_SKIPPED_POINTS = 64;
+
+    private final PhotoModel model;
+    private double tolerance;
+
+    private boolean drawing = false;
+    private int anchorX, anchorY;       // last point that is final
+    private boolean hasFloating = false;
+    private int floatingX, floatingY;   // provisional last point of the line
+    private int lastX, lastY;           // last point received, kept to end the line exactly there
+    private int[] skipped = new int[MAX_SKIPPED_POINTS * 2];
+    private int skippedCount = 0;
+
+    private long receivedPoints = 0;
+    private long storedPoints = 0;
+
+    public StrokeSimplifier(PhotoModel model) {
+        this(model, DEFAULT_TOLERANCE);
+    }
+
+    public StrokeSimplifier(PhotoModel model, double tolerance) {
+        this.model = model;
+        this.tolerance = tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void addPoint(Point point, Color color) {
+        if (!drawing) {
+            receivedPoints = 0;
+            storedPoints = 0;
+        }
+        receivedPoints++;
+        lastX = point.x;
+        lastY = point.y;
+        if (!drawing) {
+            drawing = true;
+            anchorX = point.x;
+            anchorY = point.y;
+            hasFloating = false;
+            skippedCount = 0;
+            store(point, color);
+            return;
+        }
+        int tailX = hasFloating ? floatingX : anchorX;
+        int tailY = hasFloating ? floatingY : anchorY;
+        if (PhotoModel.calculateDistance(tailX, tailY, point.x, point.y) < tolerance) {
+            // Close to the floating point but maybe not to the segment it will be moved along, so it is checked with
+            // the run. Once the run is full the floating point is not moved any more and stays close to this point.
+            if (hasFloating && skippedCount < MAX_SKIPPED_POINTS) {
+                skip(point.x, point.y);
+            }
+            return;
+        }
+        if (hasFloating && skippedCount < MAX_SKIPPED_POINTS && isRunStraight(point.x, point.y)) {
+            // The floating point is skipped as well and the line is extended up to the new point
+            skip(floatingX, floatingY);
+            floatingX = point.x;
+            floatingY = point.y;
+            model.replaceLastPoint(point);
+            return;
+        }
+        if (hasFloating) {
+            anchorX = floatingX;
+            anchorY = floatingY;
+            skippedCount = 0;
+        }
+        floatingX = point.x;
+        floatingY = point.y;
+        hasFloating = true;
+        store(point, color);
+    }
+
+    // Ends the line on the last point received
+    public void finish(Color color) {
+        if (drawing) {
+            int tailX = hasFloating ? floatingX : anchorX;
+            int tailY = hasFloating ? floatingY : anchorY;
+            if (tailX != lastX || tailY != lastY) {
+                store(new Point(lastX, lastY), color);
+            }
+            drawing = false;
+        }
+        model.endLine();
+    }
+
+    public boolean isDrawing() {
+        return drawing;
+    }
+
+    // Points received for every point kept in the model, for the current or last stroke
+    public double getReductionRatio() {
+        return storedPoints == 0 ? 1.0 : (double) receivedPoints / storedPoints;
+    }
+
+    private void store(Point point, Color color) {
+        storedPoints++;
+        model.addPoint(point, color);
+    }
+
+    private void skip(int x, int y) {
+        skipped[skippedCount * 2] = x;
+        skipped[skippedCount * 2 + 1] = y;
+        skippedCount++;
+    }
+
+    // True if the floating point and all the points skipped since the anchor are close to the segment anchor-end
+    private boolean isRunStraight(int endX, int endY) {
+        if (distanceToSegment(floatingX, floatingY, endX, endY) > tolerance) {
+            return false;
+        }
+        for (int i = 0; i < skippedCount; i++) {
+            if (distanceToSegment(skipped[i * 2], skipped[i * 2 + 1], endX, endY) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double distanceToSegment(int x, int y, int endX, int endY) {
+        double deltaX = endX - anchorX;
+        double deltaY = endY - anchorY;
+        double lengthSquared = deltaX * deltaX + deltaY * deltaY;
+        if (lengthSquared == 0) {
+            return PhotoModel.calculateDistance(anchorX, anchorY, x, y);
+        }
+        double t = ((x - anchorX) * deltaX + (y - anchorY) * deltaY) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - (anchorX + t * deltaX), y - (anchorY + t * deltaY));
+    }
+}
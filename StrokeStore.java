@@ -0,0 +1,181 @@
+import java.awt.*;
+import java.util.Arrays;
+
+// Primitive backed storage for the freehand strokes of a PhotoModel.
+// Points of all strokes live one after the other in the xs/ys arrays, strokeStarts keeps the offset of the first
+// point of every stroke (strokeStarts[strokeCount] is the end of the last one) and color/width are kept per stroke.
+public class StrokeStore {
+    private static final int INITIAL_POINT_CAPACITY = 256;
+    private static final int INITIAL_STROKE_CAPACITY = 16;
+
+    private int[] xs = new int[INITIAL_POINT_CAPACITY];
+    private int[] ys = new int[INITIAL_POINT_CAPACITY];
+    private int pointCount = 0;
+
+    private int[] strokeStarts = new int[INITIAL_STROKE_CAPACITY + 1];
+    private Color[] strokeColors = new Color[INITIAL_STROKE_CAPACITY];
+    private float[] strokeWidths = new float[INITIAL_STROKE_CAPACITY];
+    // Bounding box of every stroke in image coordinates, kept up to date as the stroke changes
+    private int[] strokeBounds = new int[INITIAL_STROKE_CAPACITY * 4];
+    private int strokeCount = 0;
+    private boolean strokeOpen = false;
+
+    public void beginStroke(Color color, float width) {
+        endStroke();
+        if (strokeCount == strokeColors.length) {
+            int newCapacity = strokeColors.length * 2;
+            strokeStarts = Arrays.copyOf(strokeStarts, newCapacity + 1);
+            strokeColors = Arrays.copyOf(strokeColors, newCapacity);
+            strokeWidths = Arrays.copyOf(strokeWidths, newCapacity);
+            strokeBounds = Arrays.copyOf(strokeBounds, newCapacity * 4);
+        }
+        strokeStarts[strokeCount] = pointCount;
+        strokeColors[strokeCount] = color;
+        strokeWidths[strokeCount] = width;
+        strokeBounds[strokeCount * 4] = Integer.MAX_VALUE;
+        strokeBounds[strokeCount * 4 + 1] = Integer.MAX_VALUE;
+        strokeBounds[strokeCount * 4 + 2] = Integer.MIN_VALUE;
+        strokeBounds[strokeCount * 4 + 3] = Integer.MIN_VALUE;
+        strokeCount++;
+        strokeStarts[strokeCount] = pointCount;
+        strokeOpen = true;
+    }
+
+    // Appends a point to the stroke that is currently open
+    public void addPoint(int x, int y) {
+        if (!strokeOpen) {
+            throw new IllegalStateException("No stroke is open");
+        }
+        if (pointCount == xs.length) {
+            xs = Arrays.copyOf(xs, xs.length * 2);
+            ys = Arrays.copyOf(ys, ys.length * 2);
+        }
+        xs[pointCount] = x;
+        ys[pointCount] = y;
+        pointCount++;
+        strokeStarts[strokeCount] = pointCount;
+        extendBounds(x, y);
+    }
+
+    // Moves the last point of the open stroke, used while a stroke is being simplified
+    public void replaceLastPoint(int x, int y) {
+        if (!strokeOpen || getStrokeStart(strokeCount - 1) == pointCount) {
+            throw new IllegalStateException("No point to replace");
+        }
+        xs[pointCount - 1] = x;
+        ys[pointCount - 1] = y;
+        // The bounds can only grow, the old position is still covered which is safe for culling
+        extendBounds(x, y);
+    }
+
+    private void extendBounds(int x, int y) {
+        int bounds = (strokeCount - 1) * 4;
+        strokeBounds[bounds] = Math.min(strokeBounds[bounds], x);
+        strokeBounds[bounds + 1] = Math.min(strokeBounds[bounds + 1], y);
+        strokeBounds[bounds + 2] = Math.max(strokeBounds[bounds + 2], x);
+        strokeBounds[bounds + 3] = Math.max(strokeBounds[bounds + 3], y);
+    }
+
+    public void endStroke() {
+        // A stroke without points would only shift the indexes of the following strokes
+        if (strokeOpen && getStrokeStart(strokeCount - 1) == pointCount) {
+            strokeCount--;
+            strokeColors[strokeCount] = null;
+        }
+        strokeOpen = false;
+    }
+
+    // Removes the last stroke with its points, no stroke can be open
+    public void removeLastStroke() {
+        if (strokeOpen || strokeCount == 0) {
+            throw new IllegalStateException("No stroke to remove");
+        }
+        strokeCount--;
+        pointCount = strokeStarts[strokeCount];
+        strokeColors[strokeCount] = null;
+    }
+
+    public boolean isStrokeOpen() {
+        return strokeOpen;
+    }
+
+    public int getStrokeCount() {
+        return strokeCount;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    // Index of the first point of the stroke
+    public int getStrokeStart(int stroke) {
+        return strokeStarts[stroke];
+    }
+
+    // Index after the last point of the stroke
+    public int getStrokeEnd(int stroke) {
+        return strokeStarts[stroke + 1];
+    }
+
+    // Index of the stroke that contains the point
+    public int getStrokeOf(int point) {
+        int low = 0;
+        int high = strokeCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (strokeStarts[middle] <= point) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getX(int point) {
+        return xs[point];
+    }
+
+    public int getY(int point) {
+        return ys[point];
+    }
+
+    public Color getColor(int stroke) {
+        return strokeColors[stroke];
+    }
+
+    public void setColor(int stroke, Color color) {
+        strokeColors[stroke] = color;
+    }
+
+    public float getWidth(int stroke) {
+        return strokeWidths[stroke];
+    }
+
+    public void translateStroke(int stroke, int deltaX, int deltaY) {
+        for (int i = getStrokeStart(stroke); i < getStrokeEnd(stroke); i++) {
+            xs[i] += deltaX;
+            ys[i] += deltaY;
+        }
+        strokeBounds[stroke * 4] += deltaX;
+        strokeBounds[stroke * 4 + 1] += deltaY;
+        strokeBounds[stroke * 4 + 2] += deltaX;
+        strokeBounds[stroke * 4 + 3] += deltaY;
+    }
+
+    public int getMinX(int stroke) {
+        return strokeBounds[stroke * 4];
+    }
+
+    public int getMinY(int stroke) {
+        return strokeBounds[stroke * 4 + 1];
+    }
+
+    public int getMaxX(int stroke) {
+        return strokeBounds[stroke * 4 + 2];
+    }
+
+    public int getMaxY(int stroke) {
+        return strokeBounds[stroke * 4 + 3];
+    }
+}
@@ -0,0 +1,365 @@
+import java.util.Arrays;
+
+// Set of photo ids compressed in the way of a roaring bitmap. The ids are split in chunks of 65536 by their high 16
+// bits; a chunk keeps the low 16 bits of its ids in a sorted array while it has at most ARRAY_MAX of them, in a bitmap
+// of 65536 bits otherwise. Sparse and dense sets both take at most 2 bytes per id, and and/or are made chunk by chunk,
+// a word of the bitmaps at a time, without looking at the ids one by one.
+public final class TagBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys = new char[4];           // high 16 bits of the ids of every chunk, sorted
+    private Object[] chunks = new Object[4];     // char[] of the sorted low bits or long[BITMAP_WORDS]
+    private int[] cardinalities = new int[4];
+    private int chunkCount = 0;
+    private int cardinality = 0;
+
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int id) {
+        int chunk = findChunk(highBits(id));
+        if (chunk < 0) {
+            return false;
+        }
+        Object values = chunks[chunk];
+        char low = (char) id;
+        if (values instanceof long[]) {
+            return (((long[]) values)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) values, 0, cardinalities[chunk], low) >= 0;
+    }
+
+    public void add(int id) {
+        checkId(id);
+        char high = highBits(id);
+        int chunk = findChunk(high);
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+            insertChunk(chunk, high, new char[4], 0);
+        }
+        char low = (char) id;
+        Object values = chunks[chunk];
+        if (values instanceof long[]) {
+            long[] words = (long[]) values;
+            if ((words[low >>> 6] & (1L << low)) == 0) {
+                words[low >>> 6] |= 1L << low;
+                cardinalities[chunk]++;
+                cardinality++;
+            }
+            return;
+        }
+        char[] array = (char[]) values;
+        int count = cardinalities[chunk];
+        int position = Arrays.binarySearch(array, 0, count, low);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (count == ARRAY_MAX) {
+            long[] words = toBitmap(array, count);
+            words[low >>> 6] |= 1L << low;
+            chunks[chunk] = words;
+        } else {
+            if (count == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, count * 2));
+                chunks[chunk] = array;
+            }
+            System.arraycopy(array, position, array, position + 1, count - position);
+            array[position] = low;
+        }
+        cardinalities[chunk]++;
+        cardinality++;
+    }
+
+    public void remove(int id) {
+        int chunk = findChunk(highBits(id));
+        if (chunk < 0) {
+            return;
+        }
+        char low = (char) id;
+        Object values = chunks[chunk];
+        int count = cardinalities[chunk];
+        if (values instanceof long[]) {
+            long[] words = (long[]) values;
+            if ((words[low >>> 6] & (1L << low)) == 0) {
+                return;
+            }
+            words[low >>> 6] &= ~(1L << low);
+            if (count - 1 <= ARRAY_MAX) {
+                chunks[chunk] = toArray(words, count - 1);
+            }
+        } else {
+            char[] array = (char[]) values;
+            int position = Arrays.binarySearch(array, 0, count, low);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(array, position + 1, array, position, count - position - 1);
+        }
+        cardinalities[chunk]--;
+        cardinality--;
+        if (cardinalities[chunk] == 0) {
+            removeChunk(chunk);
+        }
+    }
+
+    // Id with the given number of smaller ids in the set, used to go through the set without making a list of it
+    public int select(int rank) {
+        if (rank < 0 || rank >= cardinality) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " of " + cardinality);
+        }
+        int chunk = 0;
+        while (rank >= cardinalities[chunk]) {
+            rank -= cardinalities[chunk];
+            chunk++;
+        }
+        int high = keys[chunk] << 16;
+        Object values = chunks[chunk];
+        if (values instanceof char[]) {
+            return high | ((char[]) values)[rank];
+        }
+        long[] words = (long[]) values;
+        for (int word = 0; ; word++) {
+            int bits = Long.bitCount(words[word]);
+            if (rank < bits) {
+                long value = words[word];
+                for (int i = 0; i < rank; i++) {
+                    value &= value - 1;
+                }
+                return high | word << 6 | Long.numberOfTrailingZeros(value);
+            }
+            rank -= bits;
+        }
+    }
+
+    // Smallest id of the set not smaller than the given one, -1 if there is none
+    public int nextId(int from) {
+        int chunk = findChunk(highBits(Math.max(0, from)));
+        char low = (char) Math.max(0, from);
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+            low = 0;
+        }
+        for (; chunk < chunkCount; chunk++, low = 0) {
+            int high = keys[chunk] << 16;
+            Object values = chunks[chunk];
+            if (values instanceof char[]) {
+                int position = Arrays.binarySearch((char[]) values, 0, cardinalities[chunk], low);
+                position = position >= 0 ? position : -position - 1;
+                if (position < cardinalities[chunk]) {
+                    return high | ((char[]) values)[position];
+                }
+            } else {
+                long[] words = (long[]) values;
+                int word = low >>> 6;
+                long value = words[word] & (-1L << low);
+                while (value == 0 && ++word < BITMAP_WORDS) {
+                    value = words[word];
+                }
+                if (value != 0) {
+                    return high | word << 6 | Long.numberOfTrailingZeros(value);
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Ids in both sets
+    public static TagBitmap and(TagBitmap a, TagBitmap b) {
+        TagBitmap result = new TagBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount && j < b.chunkCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                result.appendAnd(a.keys[i], a.chunks[i], a.cardinalities[i], b.chunks[j], b.cardinalities[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Ids in either set
+    public static TagBitmap or(TagBitmap a, TagBitmap b) {
+        TagBitmap result = new TagBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount || j < b.chunkCount) {
+            if (j == b.chunkCount || (i < a.chunkCount && a.keys[i] < b.keys[j])) {
+                result.appendCopy(a.keys[i], a.chunks[i], a.cardinalities[i]);
+                i++;
+            } else if (i == a.chunkCount || a.keys[i] > b.keys[j]) {
+                result.appendCopy(b.keys[j], b.chunks[j], b.cardinalities[j]);
+                j++;
+            } else {
+                result.appendOr(a.keys[i], a.chunks[i], a.cardinalities[i], b.chunks[j], b.cardinalities[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private void appendAnd(char key, Object a, int aCount, Object b, int bCount) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] aWords = (long[]) a;
+            long[] bWords = (long[]) b;
+            long[] words = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                words[word] = aWords[word] & bWords[word];
+                count += Long.bitCount(words[word]);
+            }
+            append(key, count <= ARRAY_MAX ? toArray(words, count) : words, count);
+        } else if (a instanceof char[] && b instanceof char[]) {
+            char[] aValues = (char[]) a;
+            char[] bValues = (char[]) b;
+            char[] values = new char[Math.min(aCount, bCount)];
+            int count = 0;
+            for (int i = 0, j = 0; i < aCount && j < bCount; ) {
+                if (aValues[i] < bValues[j]) {
+                    i++;
+                } else if (aValues[i] > bValues[j]) {
+                    j++;
+                } else {
+                    values[count++] = aValues[i];
+                    i++;
+                    j++;
+                }
+            }
+            append(key, values, count);
+        } else {
+            // Only the ids of the array can be in both
+            char[] array = (char[]) (a instanceof char[] ? a : b);
+            int arrayCount = a instanceof char[] ? aCount : bCount;
+            long[] words = (long[]) (a instanceof long[] ? a : b);
+            char[] values = new char[arrayCount];
+            int count = 0;
+            for (int i = 0; i < arrayCount; i++) {
+                char low = array[i];
+                if ((words[low >>> 6] & (1L << low)) != 0) {
+                    values[count++] = low;
+                }
+            }
+            append(key, values, count);
+        }
+    }
+
+    private void appendOr(char key, Object a, int aCount, Object b, int bCount) {
+        if (a instanceof char[] && b instanceof char[] && aCount + bCount <= ARRAY_MAX) {
+            char[] aValues = (char[]) a;
+            char[] bValues = (char[]) b;
+            char[] values = new char[aCount + bCount];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < aCount || j < bCount) {
+                if (j == bCount || (i < aCount && aValues[i] < bValues[j])) {
+                    values[count++] = aValues[i++];
+                } else if (i == aCount || aValues[i] > bValues[j]) {
+                    values[count++] = bValues[j++];
+                } else {
+                    values[count++] = aValues[i++];
+                    j++;
+                }
+            }
+            append(key, values, count);
+            return;
+        }
+        long[] words = a instanceof long[] ? ((long[]) a).clone() : toBitmap((char[]) a, aCount);
+        if (b instanceof long[]) {
+            long[] bWords = (long[]) b;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                words[word] |= bWords[word];
+            }
+        } else {
+            char[] bValues = (char[]) b;
+            for (int i = 0; i < bCount; i++) {
+                words[bValues[i] >>> 6] |= 1L << bValues[i];
+            }
+        }
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        append(key, count <= ARRAY_MAX ? toArray(words, count) : words, count);
+    }
+
+    private void appendCopy(char key, Object values, int count) {
+        append(key, values instanceof long[] ? ((long[]) values).clone() : Arrays.copyOf((char[]) values, count), count);
+    }
+
+    // Adds a chunk after the last one, chunks without ids are left out
+    private void append(char key, Object values, int count) {
+        if (count > 0) {
+            insertChunk(chunkCount, key, values, count);
+            cardinality += count;
+        }
+    }
+
+    private void insertChunk(int chunk, char key, Object values, int count) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            cardinalities = Arrays.copyOf(cardinalities, chunkCount * 2);
+        }
+        System.arraycopy(keys, chunk, keys, chunk + 1, chunkCount - chunk);
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, chunkCount - chunk);
+        System.arraycopy(cardinalities, chunk, cardinalities, chunk + 1, chunkCount - chunk);
+        keys[chunk] = key;
+        chunks[chunk] = values;
+        cardinalities[chunk] = count;
+        chunkCount++;
+    }
+
+    private void removeChunk(int chunk) {
+        System.arraycopy(keys, chunk + 1, keys, chunk, chunkCount - chunk - 1);
+        System.arraycopy(chunks, chunk + 1, chunks, chunk, chunkCount - chunk - 1);
+        System.arraycopy(cardinalities, chunk + 1, cardinalities, chunk, chunkCount - chunk - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+
+    private int findChunk(char key) {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    private static char highBits(int id) {
+        return (char) (id >>> 16);
+    }
+
+    private static void checkId(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative id " + id);
+        }
+    }
+
+    private static long[] toBitmap(char[] array, int count) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < count; i++) {
+            words[array[i] >>> 6] |= 1L << array[i];
+        }
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int count) {
+        char[] array = new char[Math.max(4, count)];
+        int index = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            for (long value = words[word]; value != 0; value &= value - 1) {
+                array[index++] = (char) (word << 6 | Long.numberOfTrailingZeros(value));
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Random;
+
+// Measures how long filtering a large library by a combination of tags takes with TagBitmap.
+// Run with: java TagBitmapBenchmark [photos]
+public class TagBitmapBenchmark {
+    private static final int ROUNDS = 1000;
+
+    public static void main(String[] args) {
+        int photos = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        // A common tag, a frequent one, a rare one and one given to a run of consecutive photos, like an event
+        double[] densities = {0.5, 0.1, 0.001};
+        String[] names = {"common (50%)", "frequent (10%)", "rare (0.1%)", "event (run of 20%)"};
+        TagBitmap[] tags = new TagBitmap[names.length];
+        for (int tag = 0; tag < densities.length; tag++) {
+            tags[tag] = new TagBitmap();
+            for (int id = 0; id < photos; id++) {
+                if (random.nextDouble() < densities[tag]) {
+                    tags[tag].add(id);
+                }
+            }
+        }
+        tags[3] = new TagBitmap();
+        for (int id = photos / 3; id < photos / 3 + photos / 5; id++) {
+            tags[3].add(id);
+        }
+
+        for (int a = 0; a < tags.length; a++) {
+            for (int b = a + 1; b < tags.length; b++) {
+                measure(names[a] + " and " + names[b], tags[a], tags[b], true);
+                measure(names[a] + " or " + names[b], tags[a], tags[b], false);
+            }
+        }
+    }
+
+    private static void measure(String name, TagBitmap a, TagBitmap b, boolean and) {
+        // Warm up so that the code is compiled before measuring
+        TagBitmap result = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            result = and ? TagBitmap.and(a, b) : TagBitmap.or(a, b);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            result = and ? TagBitmap.and(a, b) : TagBitmap.or(a, b);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / ROUNDS;
+        System.out.printf("%-40s %8d photos  %8.1f us%n", name, result.getCardinality(), micros);
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Tags of the photos of a folder. A photo is identified by its index in the sorted list of the photos of the folder,
+// every tag keeps the ids of the photos it is given as a TagBitmap, so that any combination of tags is a few and/or of
+// bitmaps and the photos matching it are read from the result without making a list of them.
+// The tags are saved in the FILE_NAME file of the folder, a line per tag: its name then the names of its photos, all
+// separated by tabs; the names of photos that are not in the folder anymore are dropped.
+public class TagIndex {
+    public static final String FILE_NAME = ".tags";
+    public static final List<String> DEFAULT_TAGS = List.of("People", "Places", "School");
+
+    private final Path path;
+    private final List<File> files;
+    private final Map<String, TagBitmap> tags = new LinkedHashMap<>();
+
+    private TagIndex(Path path, List<File> files) {
+        this.path = path;
+        this.files = files;
+        for (String tag : DEFAULT_TAGS) {
+            tags.put(tag, new TagBitmap());
+        }
+    }
+
+    // Reads the tags of the folder, whose photos are the files in sorted order
+    public static TagIndex open(File folder, List<File> files) throws IOException {
+        TagIndex index = new TagIndex(folder.toPath().resolve(FILE_NAME), files);
+        if (Files.exists(index.path)) {
+            for (String line : Files.readAllLines(index.path, StandardCharsets.UTF_8)) {
+                String[] names = line.split("\t");
+                if (names[0].isEmpty()) {
+                    continue;
+                }
+                index.addTag(names[0]);
+                for (int i = 1; i < names.length; i++) {
+                    int id = index.getId(new File(folder, names[i]));
+                    if (id >= 0) {
+                        index.tags.get(names[0]).add(id);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(tags.keySet());
+    }
+
+    // A tag without photos, nothing is done if it exists already
+    public void addTag(String tag) {
+        tags.putIfAbsent(tag, new TagBitmap());
+    }
+
+    // The photos with the tag, not to be modified
+    public TagBitmap getPhotos(String tag) {
+        return tags.get(tag);
+    }
+
+    public File getFile(int id) {
+        return files.get(id);
+    }
+
+    // Index of the photo in the folder, negative if it is not in it
+    public int getId(File file) {
+        return Collections.binarySearch(files, file);
+    }
+
+    public boolean hasTag(File file, String tag) {
+        int id = getId(file);
+        return id >= 0 && tags.containsKey(tag) && tags.get(tag).contains(id);
+    }
+
+    public void setTag(File file, String tag, boolean tagged) {
+        int id = getId(file);
+        if (id < 0) {
+            throw new IllegalArgumentException(file.getName() + " is not in the folder");
+        }
+        addTag(tag);
+        if (tagged) {
+            tags.get(tag).add(id);
+        } else {
+            tags.get(tag).remove(id);
+        }
+    }
+
+    // The photos with all the tags, or with any of them, null when no tag is given since all the photos match
+    public TagBitmap match(Collection<String> matched, boolean all) {
+        TagBitmap result = null;
+        for (String tag : matched) {
+            TagBitmap photos = tags.containsKey(tag) ? tags.get(tag) : new TagBitmap();
+            if (result == null) {
+                result = photos;
+            } else {
+                result = all ? TagBitmap.and(result, photos) : TagBitmap.or(result, photos);
+            }
+        }
+        return result;
+    }
+
+    public void save() throws IOException {
+        Path temporary = path.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, TagBitmap> entry : tags.entrySet()) {
+                writer.write(entry.getKey());
+                TagBitmap photos = entry.getValue();
+                for (int id = photos.nextId(0); id >= 0; id = photos.nextId(id + 1)) {
+                    writer.write('\t');
+                    writer.write(files.get(id).getName());
+                }
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,22 +1,29 @@
-import fr.lri.swingstates.canvas.CStateMachine;
-
-import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.function.Function;
 
 public class TextAnnotation {
+    public static final Font FONT = new Font("Ariel", Font.PLAIN, 20);
     private Point insertionPoint;
-    private String text;
+    public static final int NO_SELECTION = -1;
+    private static final Color SELECTION_COLOR = new Color(0, 120, 215, 80);
+    private final GapBuffer text;
     private boolean hasCursor = false;
+    // The caret and the selection are indexes in the text, they are not part of it
+    private int caretPosition;
+    private int selectionAnchor = NO_SELECTION;
     private List<ChangeListener> changeListeners = new ArrayList<>();
+    private List<AnnotationOperation.Listener> operationListeners = new ArrayList<>();
     private Color color;
+    // Area covered the last time the text was drawn, in image coordinates
+    private Rectangle drawnBounds;
+    private int drawnLineHeight;
+    private WrappedText layout;
 
     public TextAnnotation(String text, Point insertionPoint, Color color) {
-        this.text = text;
+        this.text = new GapBuffer(text);
+        this.caretPosition = text.length();
         this.insertionPoint = insertionPoint;
         this.color = color;
     }
@@ -29,9 +36,37 @@ public class TextAnnotation {
         changeListeners.remove(listener);
     }
 
+    // The operations reported have no index, the model gives them the index of the annotation
+    public void addOperationListener(AnnotationOperation.Listener listener) {
+        operationListeners.add(listener);
+    }
+
+    public void removeOperationListener(AnnotationOperation.Listener listener) {
+        operationListeners.remove(listener);
+    }
+
+    private void performed(AnnotationOperation operation) {
+        for(AnnotationOperation.Listener listener: operationListeners) {
+            listener.operationPerformed(operation);
+        }
+    }
+
     public void fireChangeListeners() {
+        fireChangeListeners(drawnBounds == null ? null : new Rectangle(drawnBounds));
+    }
+
+    public void fireChangeListeners(Rectangle region) {
+        PhotoEvents.Notification notification = new PhotoEvents.Notification();
+        notification.begin();
+        AnnotationChangeEvent event = new AnnotationChangeEvent(this, region);
         for(ChangeListener listener: changeListeners) {
-            listener.stateChanged(new ChangeEvent(this));
+            listener.stateChanged(event);
+        }
+        if(notification.shouldCommit()) {
+            notification.source = "TextAnnotation";
+            notification.listeners = changeListeners.size();
+            notification.wholePhoto = region == null;
+            notification.commit();
         }
     }
 
@@ -44,21 +79,109 @@ public class TextAnnotation {
     }
 
     public String getText() {
-        return text;
+        return text.toString();
     }
 
     public void setText(String text) {
-        this.text = text;
+        String removed = this.text.toString();
+        this.text.replace(text);
+        caretPosition = Math.min(caretPosition, text.length());
+        selectionAnchor = NO_SELECTION;
+        performed(AnnotationOperation.spliceText(PhotoUI.NOT_SET, 0, removed, text));
+        fireTextChanged();
+    }
+
+    public int getCaretPosition() {
+        return caretPosition;
+    }
+
+    // Moves the caret, the selection grows from where the caret was when extendSelection is set
+    public void setCaretPosition(int position, boolean extendSelection) {
+        position = Math.max(0, Math.min(text.length(), position));
+        if (extendSelection && selectionAnchor == NO_SELECTION) {
+            selectionAnchor = caretPosition;
+        } else if (!extendSelection) {
+            selectionAnchor = NO_SELECTION;
+        }
+        caretPosition = position;
+        if (selectionAnchor == caretPosition) {
+            selectionAnchor = NO_SELECTION;
+        }
         this.fireChangeListeners();
     }
 
+    public void moveCaret(int delta, boolean extendSelection) {
+        setCaretPosition(caretPosition + delta, extendSelection);
+    }
+
+    public boolean hasSelection() {
+        return selectionAnchor != NO_SELECTION;
+    }
+
+    public int getSelectionStart() {
+        return hasSelection() ? Math.min(selectionAnchor, caretPosition) : caretPosition;
+    }
+
+    public int getSelectionEnd() {
+        return hasSelection() ? Math.max(selectionAnchor, caretPosition) : caretPosition;
+    }
+
+    // Replaces the selection, or inserts at the caret, with the given text in a single change
+    public void insert(CharSequence inserted) {
+        splice(getSelectionStart(), getSelectionEnd(), inserted.toString());
+    }
+
+    // Deletes the selection or the char before the caret
+    public void deleteBackward() {
+        if (hasSelection()) {
+            splice(getSelectionStart(), getSelectionEnd(), "");
+        } else if (caretPosition > 0) {
+            splice(caretPosition - 1, caretPosition, "");
+        }
+    }
+
+    // Replaces the chars from start to end with the inserted ones, the caret is left after them
+    public void splice(int start, int end, String inserted) {
+        String removed = start == end ? "" : text.subSequence(start, end).toString();
+        if (start < end) {
+            text.delete(start, end);
+        }
+        text.insert(start, inserted);
+        caretPosition = start + inserted.length();
+        selectionAnchor = NO_SELECTION;
+        performed(AnnotationOperation.spliceText(PhotoUI.NOT_SET, start, removed, inserted));
+        fireTextChanged();
+    }
+
+    private void fireTextChanged() {
+        Rectangle region = null;
+        if(drawnBounds != null) {
+            // The new text can be longer and wrap on one more line, up to the right border of the photo
+            region = new Rectangle(drawnBounds);
+            region.add(new Rectangle(drawnBounds.x, drawnBounds.y, Short.MAX_VALUE, drawnBounds.height + drawnLineHeight));
+        }
+        this.fireChangeListeners(region);
+    }
+
     public void setOrigin(Point origin) {
+        Rectangle region = null;
+        if(drawnBounds != null) {
+            region = new Rectangle(drawnBounds);
+            region.add(new Rectangle(drawnBounds.x + origin.x - insertionPoint.x, drawnBounds.y + origin.y - insertionPoint.y,
+                    drawnBounds.width, drawnBounds.height));
+        }
+        Point oldOrigin = insertionPoint;
         this.insertionPoint = origin;
-        this.fireChangeListeners();
+        performed(AnnotationOperation.moveText(PhotoUI.NOT_SET, oldOrigin.x, oldOrigin.y, origin.x, origin.y));
+        this.fireChangeListeners(region);
     }
 
     public void setHasCursor(boolean hasCursor) {
-        this.hasCursor = hasCursor;
+        if (this.hasCursor != hasCursor) {
+            this.hasCursor = hasCursor;
+            selectionAnchor = NO_SELECTION;
+            this.fireChangeListeners();
+        }
     }
 
     public boolean hasCursor() {
@@ -69,45 +192,24 @@ public class TextAnnotation {
         return insertionPoint;
     }
 
-    public boolean isAnnotationInPoint(Point click, Point origin, double scaleX, double scaleY, FontMetrics font, Function<Point, Boolean> isPointInArea) {
-        int y = (int) ((insertionPoint.y * scaleY) + origin.y);
-        int i = 0; // index of the char in the word
-        char[] word = text.toCharArray();
-        String printedWord = ""; // word to be printed
+    public boolean isAnnotationInPoint(Point click, Point origin, double scaleX, double scaleY, FontMetrics font, Rectangle imageArea) {
         int startX = (int) ((insertionPoint.x * scaleX) + origin.x); // x0 coordinate of the word
-        int endX = startX + font.stringWidth(Arrays.toString(word));
-        System.out.println("Start X before: " + startX);
-        System.out.println("End X before: " + endX);
-        if(!isPointInArea.apply(new Point(endX, y))) {
-            while(i < word.length) {
-                printedWord += word[i];
-                endX = startX + font.stringWidth(printedWord);
-                if(!isPointInArea.apply(new Point(endX, y))) {
-                    printedWord = word[i] + "";
-                    y += font.getHeight() + 1;
-                }
-                if (isPointOverText(click, origin, scaleX, scaleY, font, y, startX, endX)) return true;
-                i++;
-            }
-        } else {
-            printedWord = Arrays.toString(word);
-        }
-        endX = startX + font.stringWidth(printedWord);
-        return isPointOverText(click, origin, scaleX, scaleY, font, y, startX, endX);
+        int y = (int) ((insertionPoint.y * scaleY) + origin.y);
+        WrappedText layout = getLayout(font, imageArea.x + imageArea.width - startX);
+        return layout.getLineAt(click.x - startX, click.y - y) != -1;
     }
 
-    private boolean isPointOverText(Point click, Point origin, double scaleX, double scaleY, FontMetrics font, int y, int startX, int endX) {
-        return (int) click.getX() >= startX
-                && (int) click.getX() <= endX
-                && (int) click.getY() + font.getHeight() >= y
-                && (int) click.getY() + origin.y <= y;
+    // The wrapping is computed again only when the text, the font or the space on the right of the text change
+    private WrappedText getLayout(FontMetrics font, int availableWidth) {
+        String text = this.text.toString();
+        if(layout == null || !layout.matches(text, font, availableWidth)) {
+            layout = new WrappedText(text, font, availableWidth);
+        }
+        return layout;
     }
 
-
-
-
-    public void draw(Graphics g, Point origin, double scaleX, double scaleY, int imageHeight, Function<Point, Boolean> isPointInArea) {
-        g.setFont(new Font("Ariel", Font.PLAIN, 20));
+    public void draw(Graphics g, Point origin, double scaleX, double scaleY, Rectangle imageArea) {
+        g.setFont(FONT);
         FontMetrics font = g.getFontMetrics();
         // Different style for the text that is being edited
         if(hasCursor) {
@@ -117,32 +219,79 @@ public class TextAnnotation {
         }
 
         int y = (int)((insertionPoint.y * scaleY) + origin.y);
-        int i = 0; // index of the char in the word
-
-        char[] word = text.toCharArray();
-        String printedWord = "";
         int startX = (int)((insertionPoint.x * scaleX) + origin.x);
-        // Build the longest string possible before creating a new line
-        while(i < word.length && y < origin.y + imageHeight) {
-            printedWord += word[i];
-            int endX = startX + font.stringWidth(printedWord);
-            // If the word overflow the size of the image then print word that can fit in that space and move the
-            // y coordinate to create a new line
-            if(!isPointInArea.apply(new Point(endX, y))) {
-                // -1 because otherwise the text will go out of the Canvas
-                g.drawString(printedWord.substring(0, printedWord.length() - 1), startX, y);
-                printedWord = word[i] + "";
-                y += font.getHeight() + 1;
+        // Lines that overflow the right border of the image continue on a new line
+        WrappedText layout = getLayout(font, imageArea.x + imageArea.width - startX);
+        int firstBaseline = y;
+        int maxEndX = startX;
+        int lastBaseline = y;
+        for(int line = 0; line < layout.getLineCount() && y < imageArea.y + imageArea.height; line++) {
+            if(hasCursor && hasSelection()) {
+                drawSelection(g, layout, line, startX, y);
+            }
+            g.drawString(layout.getLine(line), startX, y);
+            maxEndX = Math.max(maxEndX, startX + layout.getLineWidth(line));
+            lastBaseline = y;
+            y += layout.getLineHeight();
+        }
+        if(hasCursor) {
+            int caretLine = layout.getLineOf(caretPosition);
+            int caretY = firstBaseline + caretLine * layout.getLineHeight();
+            int caretX = startX + caretOffset(layout, caretLine, caretPosition, font);
+            if(caretY < imageArea.y + imageArea.height) {
+                g.drawLine(caretX, caretY - layout.getAscent(), caretX, caretY + layout.getDescent());
+                maxEndX = Math.max(maxEndX, caretX + 1);
+                lastBaseline = Math.max(lastBaseline, caretY);
             }
-            i++;
         }
-        if(y < origin.y + imageHeight) {
-            g.drawString(printedWord, startX, y);
+        recordDrawnBounds(origin, scaleX, scaleY, font, startX, maxEndX, lastBaseline);
+    }
+
+    private void drawSelection(Graphics g, WrappedText layout, int line, int startX, int baseline) {
+        int lineStart = layout.getLineStart(line);
+        int lineEnd = lineStart + layout.getLine(line).length();
+        int from = Math.max(getSelectionStart(), lineStart);
+        int to = Math.min(getSelectionEnd(), lineEnd);
+        if(from < to) {
+            FontMetrics font = g.getFontMetrics();
+            int x1 = startX + caretOffset(layout, line, from, font);
+            int x2 = startX + caretOffset(layout, line, to, font);
+            Color textColor = g.getColor();
+            g.setColor(SELECTION_COLOR);
+            g.fillRect(x1, baseline - layout.getAscent(), x2 - x1, layout.getAscent() + layout.getDescent());
+            g.setColor(textColor);
         }
     }
 
+    // Distance from the start of the line of the position before the char at the index
+    private int caretOffset(WrappedText layout, int line, int index, FontMetrics font) {
+        if(layout.getLineCount() == 0) {
+            return 0;
+        }
+        String lineText = layout.getLine(line);
+        return font.stringWidth(lineText.substring(0, Math.min(lineText.length(), index - layout.getLineStart(line))));
+    }
+
+    // Keeps the area covered by the text in image coordinates, so that a change can repaint only that part
+    private void recordDrawnBounds(Point origin, double scaleX, double scaleY, FontMetrics font, int startX, int endX, int lastBaseline) {
+        int top = (int)((insertionPoint.y * scaleY) + origin.y) - font.getAscent();
+        int bottom = lastBaseline + font.getDescent();
+        int x = (int) Math.floor((startX - origin.x) / scaleX);
+        int y = (int) Math.floor((top - origin.y) / scaleY);
+        int width = (int) Math.ceil((endX - startX) / scaleX) + 1;
+        int height = (int) Math.ceil((bottom - top) / scaleY) + 1;
+        drawnBounds = new Rectangle(x, y, width, height);
+        drawnLineHeight = (int) Math.ceil((font.getHeight() + 1) / scaleY);
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
     public void setColor(Color color) {
+        Color oldColor = this.color;
         this.color = color;
+        performed(AnnotationOperation.setTextColor(PhotoUI.NOT_SET, oldColor, color));
         this.fireChangeListeners();
     }
 }
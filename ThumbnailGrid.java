@@ -0,0 +1,232 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Grid of the thumbnails of a list of photos, meant to be shown in a scroll pane.
+// No component is created for the cells: only the rows visible in the viewport are painted, so the cost of a paint
+// does not depend on the size of the library. The thumbnails of the visible rows are asked first, then the ones of the
+// rows just above and below, the others are cancelled when they scroll out of view.
+// Double clicking a thumbnail fires an ActionEvent whose command is the path of the photo.
+// A filter limits the grid to some of the photos, read from the bitmap of their indexes as the cells are painted.
+public class ThumbnailGrid extends JComponent implements Scrollable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int THUMBNAIL_SIZE = 160;
+    private static final int GAP = 12;
+    private static final int LABEL_HEIGHT = 18;
+    private static final int CELL_WIDTH = THUMBNAIL_SIZE + GAP;
+    private static final int CELL_HEIGHT = THUMBNAIL_SIZE + LABEL_HEIGHT + GAP;
+    // Rows above and below the viewport whose thumbnails are made in advance
+    private static final int PREFETCH_ROWS = 2;
+    private static final Color SELECTION_COLOR = new Color(0, 120, 215);
+
+    private final List<File> files;
+    private final ThumbnailLoader loader;
+    private TagBitmap filter = null;   // indexes in files of the photos shown, all of them if null
+    private int selectedIndex = -1;    // of the cell
+
+    // The thumbnails are kept in the store when it is not null
+    public ThumbnailGrid(List<File> files, ThumbnailStore store) {
+        this.files = files;
+        this.loader = new ThumbnailLoader(THUMBNAIL_SIZE, store, file -> repaint());
+        setFont(new Font("Arial", Font.PLAIN, 12));
+        setBackground(Color.LIGHT_GRAY);
+        setOpaque(true);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int index = getIndexAt(e.getPoint());
+                if (index != selectedIndex) {
+                    repaintCell(selectedIndex);
+                    selectedIndex = index;
+                    repaintCell(selectedIndex);
+                }
+                if (index >= 0 && e.getClickCount() == 2) {
+                    fireActionPerformed(getFile(index));
+                }
+            }
+        });
+    }
+
+    public void addActionListener(ActionListener listener) {
+        listenerList.add(ActionListener.class, listener);
+    }
+
+    public void removeActionListener(ActionListener listener) {
+        listenerList.remove(ActionListener.class, listener);
+    }
+
+    private void fireActionPerformed(File file) {
+        ActionEvent event = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, file.getPath());
+        for (ActionListener listener : listenerList.getListeners(ActionListener.class)) {
+            listener.actionPerformed(event);
+        }
+    }
+
+    public File getSelectedFile() {
+        return selectedIndex >= 0 ? getFile(selectedIndex) : null;
+    }
+
+    // Shows only the photos whose index in the list is in the bitmap, or all of them if it is null
+    public void setFilter(TagBitmap filter) {
+        this.filter = filter;
+        selectedIndex = -1;
+        revalidate();
+        repaint();
+    }
+
+    // Number of photos shown
+    public int getCount() {
+        return filter == null ? files.size() : filter.getCardinality();
+    }
+
+    // Photo shown in the cell
+    private File getFile(int index) {
+        return files.get(filter == null ? index : filter.select(index));
+    }
+
+    // Stops making thumbnails and closes the store, once the grid is not shown anymore; onError is called on the event
+    // thread if the store cannot be written
+    public void dispose(Consumer<IOException> onError) {
+        loader.dispose(onError);
+    }
+
+    private int getColumns() {
+        return Math.max(1, getWidth() / CELL_WIDTH);
+    }
+
+    private int getIndexAt(Point point) {
+        int columns = getColumns();
+        int column = point.x / CELL_WIDTH;
+        int index = point.y / CELL_HEIGHT * columns + column;
+        return column < columns && index < getCount() ? index : -1;
+    }
+
+    private Rectangle getCellBounds(int index) {
+        int columns = getColumns();
+        return new Rectangle(index % columns * CELL_WIDTH, index / columns * CELL_HEIGHT, CELL_WIDTH, CELL_HEIGHT);
+    }
+
+    private void repaintCell(int index) {
+        if (index >= 0) {
+            repaint(getCellBounds(index));
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        // The width follows the viewport, the height is the one of all the rows at that width
+        int width = getParent() instanceof JViewport ? getParent().getWidth() : 4 * CELL_WIDTH;
+        int columns = Math.max(1, width / CELL_WIDTH);
+        int rows = (getCount() + columns - 1) / columns;
+        return new Dimension(columns * CELL_WIDTH, rows * CELL_HEIGHT);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        requestVisibleThumbnails();
+
+        int columns = getColumns();
+        int firstRow = Math.max(0, clip.y / CELL_HEIGHT);
+        int lastRow = (clip.y + clip.height - 1) / CELL_HEIGHT;
+        FontMetrics metrics = g.getFontMetrics();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                if (index >= getCount()) {
+                    return;
+                }
+                paintCell((Graphics2D) g, index, column * CELL_WIDTH, row * CELL_HEIGHT, metrics);
+            }
+        }
+    }
+
+    // Asks the thumbnails of the visible rows first and of the rows around them next, the others are cancelled
+    private void requestVisibleThumbnails() {
+        Rectangle visible = getVisibleRect();
+        int columns = getColumns();
+        int firstRow = visible.y / CELL_HEIGHT;
+        int lastRow = (visible.y + visible.height - 1) / CELL_HEIGHT;
+        loader.beginRequests();
+        for (int row = Math.max(0, firstRow - PREFETCH_ROWS); row <= lastRow + PREFETCH_ROWS; row++) {
+            int priority = row < firstRow || row > lastRow ? 1 : 0;
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                if (index >= getCount()) {
+                    break;
+                }
+                loader.request(getFile(index), priority);
+            }
+        }
+        loader.endRequests();
+    }
+
+    private void paintCell(Graphics2D g, int index, int x, int y, FontMetrics metrics) {
+        File file = getFile(index);
+        int boxX = x + GAP / 2;
+        int boxY = y + GAP / 2;
+        if (index == selectedIndex) {
+            g.setColor(SELECTION_COLOR);
+            g.fillRect(boxX - 3, boxY - 3, THUMBNAIL_SIZE + 6, THUMBNAIL_SIZE + LABEL_HEIGHT + 6);
+        }
+        BufferedImage thumbnail = loader.getThumbnail(file);
+        if (thumbnail != null) {
+            // Centered in its box, the thumbnail is already at the size it is drawn
+            g.drawImage(thumbnail, boxX + (THUMBNAIL_SIZE - thumbnail.getWidth()) / 2,
+                    boxY + (THUMBNAIL_SIZE - thumbnail.getHeight()) / 2, null);
+        } else {
+            g.setColor(Color.GRAY);
+            g.fillRect(boxX, boxY, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            if (loader.hasFailed(file)) {
+                g.setColor(Color.WHITE);
+                g.drawString("?", boxX + (THUMBNAIL_SIZE - metrics.charWidth('?')) / 2, boxY + THUMBNAIL_SIZE / 2);
+            }
+        }
+        g.setColor(index == selectedIndex ? Color.WHITE : Color.BLACK);
+        String name = file.getName();
+        int nameX = boxX + Math.max(0, (THUMBNAIL_SIZE - metrics.stringWidth(name)) / 2);
+        Shape oldClip = g.getClip();
+        g.clipRect(boxX, boxY + THUMBNAIL_SIZE, THUMBNAIL_SIZE, LABEL_HEIGHT);
+        g.drawString(name, nameX, boxY + THUMBNAIL_SIZE + metrics.getAscent() + 2);
+        g.setClip(oldClip);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(4 * CELL_WIDTH, 3 * CELL_HEIGHT);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? CELL_HEIGHT / 4 : CELL_WIDTH / 4;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? Math.max(CELL_HEIGHT, visibleRect.height - CELL_HEIGHT) : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
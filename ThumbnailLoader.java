@@ -0,0 +1,225 @@
+import javax.imageio.ImageReader;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Makes the thumbnails of photos on a bounded pool of background threads and keeps the recent ones in memory.
+// The thumbnails are asked in batches, one for every paint of the browser: the ones asked with the lowest priority are
+// made first, and the ones that were queued or running but are not asked anymore are cancelled.
+// The thumbnails are read from, and added to, the store on disk when there is one.
+// Everything but the decoding runs on the event thread.
+public class ThumbnailLoader {
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private final int thumbnailSize;
+    private final ThumbnailStore store;
+    private final Consumer<File> onReady;
+    private final long budgetBytes;
+    private final ThreadPoolExecutor executor;
+
+    private final Map<File, BufferedImage> thumbnails = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes = 0;
+    private final Set<File> failed = new HashSet<>();
+    private final Map<File, ThumbnailTask> tasks = new HashMap<>();
+    private final Set<File> requested = new HashSet<>();
+    private long sequence = 0;
+
+    // onReady is called on the event thread when the thumbnail of a file is available; the store can be null
+    public ThumbnailLoader(int thumbnailSize, ThumbnailStore store, Consumer<File> onReady) {
+        this(thumbnailSize, store, onReady, DEFAULT_BUDGET_BYTES);
+    }
+
+    public ThumbnailLoader(int thumbnailSize, ThumbnailStore store, Consumer<File> onReady, long budgetBytes) {
+        this.thumbnailSize = thumbnailSize;
+        this.store = store;
+        this.onReady = onReady;
+        this.budgetBytes = budgetBytes;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-loader");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+    }
+
+    public void beginRequests() {
+        requested.clear();
+    }
+
+    // Returns the thumbnail of the file, or null after scheduling it; a lower priority is made earlier
+    public BufferedImage request(File file, int priority) {
+        BufferedImage thumbnail = thumbnails.get(file);
+        if (thumbnail != null || failed.contains(file)) {
+            return thumbnail;
+        }
+        requested.add(file);
+        ThumbnailTask task = tasks.get(file);
+        if (task == null) {
+            task = new ThumbnailTask(file, priority, sequence++);
+            tasks.put(file, task);
+            executor.execute(task);
+        } else if (task.priority != priority && executor.remove(task)) {
+            // The queue orders the tasks when they are added, a task that moved is added again
+            task.priority = priority;
+            executor.execute(task);
+        }
+        return null;
+    }
+
+    // Cancels the tasks of the files that were not requested since beginRequests
+    public void endRequests() {
+        Iterator<ThumbnailTask> iterator = tasks.values().iterator();
+        while (iterator.hasNext()) {
+            ThumbnailTask task = iterator.next();
+            if (!requested.contains(task.file)) {
+                task.cancel();
+                executor.remove(task);
+                iterator.remove();
+            }
+        }
+    }
+
+    // Returns the thumbnail of the file if it is in memory, without scheduling it
+    public BufferedImage getThumbnail(File file) {
+        return thumbnails.get(file);
+    }
+
+    public boolean hasFailed(File file) {
+        return failed.contains(file);
+    }
+
+    // Stops the threads and closes the store, the loader cannot be used anymore. The threads are not interrupted, as
+    // an interrupt in the middle of the I/O of the store closes its file: the queued tasks are dropped and the running
+    // ones stop at their next step. The store is closed on its own thread once they are done, without blocking the
+    // event thread; onError is called on the event thread if it cannot be written
+    public void dispose(Consumer<IOException> onError) {
+        for (ThumbnailTask task : tasks.values()) {
+            task.cancel();
+        }
+        tasks.clear();
+        executor.getQueue().clear();
+        executor.shutdown();
+        if (store == null) {
+            return;
+        }
+        // Not a daemon, so that the store is written even when the application is exiting
+        Thread closer = new Thread(() -> {
+            try {
+                // The store is written once the thumbnails being made are added to it
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // A photo taking long to decode, the thumbnail is still added
+                }
+                store.close();
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> onError.accept(e));
+            } catch (InterruptedException e) {
+                SwingUtilities.invokeLater(() -> onError.accept(new InterruptedIOException("Interrupted before the thumbnails were saved")));
+            }
+        }, "thumbnail-store-closer");
+        closer.start();
+    }
+
+    private void done(ThumbnailTask task, BufferedImage thumbnail) {
+        if (tasks.get(task.file) != task) {
+            return;
+        }
+        tasks.remove(task.file);
+        if (thumbnail == null) {
+            failed.add(task.file);
+        } else {
+            put(task.file, thumbnail);
+        }
+        onReady.accept(task.file);
+    }
+
+    private void put(File file, BufferedImage thumbnail) {
+        thumbnails.put(file, thumbnail);
+        usedBytes += bytesOf(thumbnail);
+        Iterator<Map.Entry<File, BufferedImage>> iterator = thumbnails.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()) {
+            Map.Entry<File, BufferedImage> eldest = iterator.next();
+            if (eldest.getKey().equals(file)) {
+                continue;
+            }
+            usedBytes -= bytesOf(eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    // Decodes the photo subsampled close to the thumbnail size, then scales it to fit in the thumbnail
+    static BufferedImage makeThumbnail(ImageReader reader, int thumbnailSize) throws IOException {
+        Dimension imageSize = ImageDecoder.readSize(reader);
+        Dimension target = new Dimension(thumbnailSize, thumbnailSize);
+        BufferedImage image = ImageDecoder.read(reader, null, ImageDecoder.subsamplingFor(imageSize, target));
+        double scale = Math.min(1.0, Math.min((double) thumbnailSize / image.getWidth(), (double) thumbnailSize / image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        return ScaledImageCache.scale(image, width, height);
+    }
+
+    private class ThumbnailTask implements Runnable, Comparable<ThumbnailTask> {
+        private final File file;
+        private final long order;
+        private volatile int priority;
+        private volatile boolean cancelled = false;
+
+        ThumbnailTask(File file, int priority, long order) {
+            this.file = file;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(ThumbnailTask other) {
+            return priority != other.priority ? Integer.compare(priority, other.priority) : Long.compare(order, other.order);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            BufferedImage thumbnail = null;
+            try {
+                thumbnail = store != null ? store.get(file) : null;
+                if (thumbnail == null) {
+                    ImageReader reader = ImageDecoder.open(file);
+                    try {
+                        ImageDecoder.abortWhen(reader, () -> cancelled);
+                        thumbnail = makeThumbnail(reader, thumbnailSize);
+                    } finally {
+                        ImageDecoder.close(reader);
+                    }
+                    if (store != null && !cancelled) {
+                        store.put(file, thumbnail);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // The file is shown as unreadable
+            }
+            if (cancelled) {
+                return;
+            }
+            BufferedImage result = thumbnail;
+            SwingUtilities.invokeLater(() -> done(this, result));
+        }
+    }
+}
@@ -0,0 +1,385 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Thumbnails of the photos of a folder kept on disk in the folder itself, so that they are not made again at every start.
+// The pixels are stored raw (3 bytes per pixel) one after the other in a data file, reading one back is a single read
+// straight into the raster of the image, without decoding.
+// The index is a hash table on the file name, memory mapped and looked up in place. An entry is valid only while the
+// photo keeps the size and modification time it had when the thumbnail was made. The thumbnails added since the store
+// was opened are indexed in memory and written with the index when the store is closed; the index then drops the
+// entries of photos changed or removed, and the data file is compacted when most of it is not referenced anymore.
+// Compacting copies the valid thumbnails into a new data file. The index names its data file by a generation number,
+// so moving the new index in place switches both files at once and a crash before that leaves the old pair intact.
+// The methods can be called from any thread, reads and additions wait while the index is written.
+public class ThumbnailStore {
+    public static final String DIRECTORY_NAME = ".thumbnails";
+    private static final int MAGIC = 0x50544849; // "PTHI"
+    private static final int VERSION = 2;
+    // magic(4) version(4) slots(4) entries(4) generation(8)
+    private static final int HEADER_SIZE = 24;
+    // hash(8) nameOffset(4) nameLength(4) size(8) modified(8) dataOffset(8) width(2) height(2) padding(4)
+    private static final int SLOT_SIZE = 48;
+
+    private final File folder;
+    private final Path directory;
+    private final Path indexPath;
+    private volatile MappedByteBuffer index;
+    private volatile int slotCount;
+    private long generation;            // of the data file the index refers to
+    private FileChannel data;
+    private volatile long dataLength;
+    // Held for reading while a thumbnail is read or added, for writing while the index is written
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> added = new ConcurrentHashMap<>();
+    private volatile boolean changed = false;
+
+    private static class Entry {
+        final String name;
+        final long size;
+        final long modified;
+        final long dataOffset;
+        final int width;
+        final int height;
+
+        Entry(String name, long size, long modified, long dataOffset, int width, int height) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.dataOffset = dataOffset;
+            this.width = width;
+            this.height = height;
+        }
+
+        long dataLength() {
+            return (long) width * height * 3;
+        }
+
+        boolean matches(File file) {
+            return size == file.length() && modified == file.lastModified();
+        }
+    }
+
+    private ThumbnailStore(File folder) throws IOException {
+        this.folder = folder;
+        directory = new File(folder, DIRECTORY_NAME).toPath();
+        Files.createDirectories(directory);
+        indexPath = directory.resolve("index");
+        mapIndex();
+        data = FileChannel.open(dataPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        dataLength = data.size();
+        deleteOldDataFiles();
+    }
+
+    // Opens the store of the folder, creating it if needed
+    public static ThumbnailStore open(File folder) throws IOException {
+        return new ThumbnailStore(folder);
+    }
+
+    private Path dataPath(long generation) {
+        return directory.resolve("data-" + generation);
+    }
+
+    // Data files older than the one in use, left by a crash after a compaction. A newer one, left by a crash during a
+    // compaction or being written by a store of the folder still closing, is overwritten by the next compaction
+    private void deleteOldDataFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "data*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals("data") || name.matches("data-\\d+") && Long.parseLong(name.substring(5)) < generation) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void mapIndex() throws IOException {
+        index = null;
+        slotCount = 0;
+        generation = 0;
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int slots = buffer.getInt(8);
+            // An index from another version, or a truncated one, is ignored and made again
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || Integer.bitCount(slots) != 1
+                    || HEADER_SIZE + (long) slots * SLOT_SIZE > channel.size()) {
+                return;
+            }
+            index = buffer;
+            slotCount = slots;
+            generation = buffer.getLong(16);
+        }
+    }
+
+    // Returns the stored thumbnail of the photo, or null if there is none or the photo changed since it was made
+    public BufferedImage get(File file) throws IOException {
+        lock.readLock().lock();
+        try {
+            Entry entry = find(file.getName());
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.matches(file) || entry.dataOffset + entry.dataLength() > dataLength) {
+                changed = true;
+                return null;
+            }
+            BufferedImage thumbnail = new BufferedImage(entry.width, entry.height, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] pixels = ((DataBufferByte) thumbnail.getRaster().getDataBuffer()).getData();
+            ByteBuffer buffer = ByteBuffer.wrap(pixels);
+            long position = entry.dataOffset;
+            while (buffer.hasRemaining()) {
+                int read = data.read(buffer, position);
+                if (read < 0) {
+                    return null;
+                }
+                position += read;
+            }
+            return thumbnail;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends the thumbnail of the photo, it replaces the one stored before if any
+    public void put(File file, BufferedImage thumbnail) throws IOException {
+        BufferedImage image = thumbnail;
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            image = new BufferedImage(thumbnail.getWidth(), thumbnail.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            image.getGraphics().drawImage(thumbnail, 0, 0, null);
+        }
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        lock.readLock().lock();
+        try {
+            long offset;
+            synchronized (this) {
+                offset = dataLength;
+                dataLength += pixels.length;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(pixels);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += data.write(buffer, position);
+            }
+            added.put(file.getName(), new Entry(file.getName(), file.length(), file.lastModified(), offset,
+                    image.getWidth(), image.getHeight()));
+            changed = true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Entry find(String name) {
+        Entry entry = added.get(name);
+        if (entry != null) {
+            return entry;
+        }
+        MappedByteBuffer buffer = index;
+        if (buffer == null) {
+            return null;
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(nameBytes);
+        int mask = slotCount - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            int nameLength = buffer.getInt(base + 12);
+            if (nameLength == 0) {
+                return null;
+            }
+            if (buffer.getLong(base) == hash && nameLength == nameBytes.length
+                    && nameEquals(buffer, buffer.getInt(base + 8), nameBytes)) {
+                return readEntry(buffer, base, name);
+            }
+        }
+    }
+
+    private static boolean nameEquals(ByteBuffer buffer, int offset, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Entry readEntry(ByteBuffer buffer, int base, String name) {
+        return new Entry(name, buffer.getLong(base + 16), buffer.getLong(base + 24), buffer.getLong(base + 32),
+                buffer.getShort(base + 40) & 0xFFFF, buffer.getShort(base + 42) & 0xFFFF);
+    }
+
+    private static List<Entry> readEntries(ByteBuffer buffer, int slotCount) {
+        List<Entry> entries = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            int nameLength = buffer.getInt(base + 12);
+            if (nameLength != 0) {
+                byte[] name = new byte[nameLength];
+                int nameOffset = buffer.getInt(base + 8);
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = buffer.get(nameOffset + i);
+                }
+                entries.add(readEntry(buffer, base, new String(name, StandardCharsets.UTF_8)));
+            }
+        }
+        return entries;
+    }
+
+    // FNV-1a
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Writes the index of the thumbnails still valid, compacting the data file first if needed
+    private void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (changed) {
+                writeValidEntries();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writeValidEntries() throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        if (index != null) {
+            for (Entry entry : readEntries(index, slotCount)) {
+                entries.put(entry.name, entry);
+            }
+        }
+        entries.putAll(added);
+        List<Entry> live = new ArrayList<>();
+        long liveBytes = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.matches(new File(folder, entry.name)) && entry.dataOffset + entry.dataLength() <= dataLength) {
+                live.add(entry);
+                liveBytes += entry.dataLength();
+            }
+        }
+        if (liveBytes >= dataLength / 2) {
+            data.force(false);
+            writeIndex(live, generation);
+        } else {
+            // The old data file stays in use until the index that refers to the new one is in place
+            Path oldPath = dataPath(generation);
+            Path newPath = dataPath(generation + 1);
+            FileChannel compacted = FileChannel.open(newPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                live = compact(live, compacted);
+                writeIndex(live, generation + 1);
+            } catch (IOException e) {
+                compacted.close();
+                Files.deleteIfExists(newPath);
+                throw e;
+            }
+            data.close();
+            data = compacted;
+            dataLength = compacted.size();
+            Files.deleteIfExists(oldPath);
+        }
+        added.clear();
+        mapIndex();
+        changed = false;
+    }
+
+    // Copies the valid thumbnails one after the other into the new data file
+    private List<Entry> compact(List<Entry> live, FileChannel target) throws IOException {
+        live.sort((a, b) -> Long.compare(a.dataOffset, b.dataOffset));
+        List<Entry> moved = new ArrayList<>(live.size());
+        long position = 0;
+        for (Entry entry : live) {
+            long copied = 0;
+            while (copied < entry.dataLength()) {
+                long transferred = data.transferTo(entry.dataOffset + copied, entry.dataLength() - copied, target);
+                if (transferred == 0) {
+                    throw new IOException("Thumbnail data of " + entry.name + " is truncated");
+                }
+                copied += transferred;
+            }
+            moved.add(new Entry(entry.name, entry.size, entry.modified, position, entry.width, entry.height));
+            position += entry.dataLength();
+        }
+        target.force(false);
+        return moved;
+    }
+
+    // The index is written to a temporary file then moved over the old one, a reader never sees a partial index
+    private void writeIndex(List<Entry> entries, long dataGeneration) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(8, entries.size() * 2 - 1)) << 1;
+        List<byte[]> names = new ArrayList<>(entries.size());
+        int namesLength = 0;
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            namesLength += name.length;
+        }
+        int namesOffset = HEADER_SIZE + slots * SLOT_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(namesOffset + namesLength);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slots).putInt(12, entries.size()).putLong(16, dataGeneration);
+        int nameOffset = namesOffset;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            byte[] name = names.get(i);
+            long hash = hash(name);
+            int slot = (int) hash & (slots - 1);
+            while (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 12) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            buffer.putLong(base, hash).putInt(base + 8, nameOffset).putInt(base + 12, name.length)
+                    .putLong(base + 16, entry.size).putLong(base + 24, entry.modified).putLong(base + 32, entry.dataOffset)
+                    .putShort(base + 40, (short) entry.width).putShort(base + 42, (short) entry.height);
+            buffer.put(nameOffset, name);
+            nameOffset += name.length;
+        }
+        Path temporary = indexPath.resolveSibling("index.tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Must be called once no thumbnail is read or added anymore
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.Arrays;
+
+// Line breaks of a text wrapped inside a given width, computed once and reused by drawing and hit-testing.
+// A layout is only valid for the text, font and available width it was built with.
+public class WrappedText {
+    private final String text;
+    private final Font font;
+    private final FontRenderContext renderContext;
+    private final int availableWidth;
+
+    private final int[] lineStarts; // index of the first char of every line, the entry after the last line is the text length
+    private final int[] lineWidths;
+    private final String[] lines;
+    private final int lineCount;
+    private final int lineHeight;
+    private final int ascent;
+    private final int descent;
+
+    public WrappedText(String text, FontMetrics metrics, int availableWidth) {
+        this.text = text;
+        this.font = metrics.getFont();
+        this.renderContext = metrics.getFontRenderContext();
+        this.availableWidth = availableWidth;
+        this.lineHeight = metrics.getHeight() + 1;
+        this.ascent = metrics.getAscent();
+        this.descent = metrics.getDescent();
+
+        char[] chars = text.toCharArray();
+        int[] starts = new int[8];
+        int count = 0;
+        int lineWidth = 0;
+        for (int i = 0; i < chars.length; i++) {
+            int advance = metrics.charWidth(chars[i]);
+            // A char that does not fit starts a new line, every line keeps at least one char
+            if (i > starts[count] && lineWidth + advance > availableWidth) {
+                count++;
+                if (count + 1 >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                }
+                starts[count] = i;
+                lineWidth = 0;
+            }
+            lineWidth += advance;
+        }
+        if (chars.length > 0) {
+            count++;
+        }
+        starts[count] = chars.length;
+        this.lineStarts = starts;
+        this.lineCount = count;
+        this.lineWidths = new int[count];
+        this.lines = new String[count];
+        for (int line = 0; line < count; line++) {
+            lineWidths[line] = metrics.charsWidth(chars, starts[line], starts[line + 1] - starts[line]);
+            lines[line] = text.substring(starts[line], starts[line + 1]);
+        }
+    }
+
+    public boolean matches(String text, FontMetrics metrics, int availableWidth) {
+        return this.availableWidth == availableWidth
+                && (this.text == text || this.text.equals(text))
+                && font.equals(metrics.getFont())
+                && renderContext.equals(metrics.getFontRenderContext());
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public String getLine(int line) {
+        return lines[line];
+    }
+
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    // Line where a caret at the index is shown, a caret between two lines goes at the start of the second one
+    public int getLineOf(int index) {
+        if (lineCount == 0) {
+            return 0;
+        }
+        int line = Arrays.binarySearch(lineStarts, 0, lineCount, index);
+        return line >= 0 ? line : -line - 2;
+    }
+
+    public int getLineWidth(int line) {
+        return lineWidths[line];
+    }
+
+    // Distance between the baselines of two lines
+    public int getLineHeight() {
+        return lineHeight;
+    }
+
+    public int getAscent() {
+        return ascent;
+    }
+
+    public int getDescent() {
+        return descent;
+    }
+
+    // Index of the line under the point, relative to the start of the first baseline, or -1
+    public int getLineAt(int x, int y) {
+        int line = Math.floorDiv(y + ascent, lineHeight);
+        if (line < 0 || line >= lineCount) {
+            return -1;
+        }
+        int baseline = line * lineHeight;
+        if (y < baseline - ascent || y > baseline + descent || x < 0 || x > lineWidths[line]) {
+            return -1;
+        }
+        return line;
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class AnnotationFileTest {
+    @Test
+    void readsWhatIsWritten() throws IOException {
+        PhotoModel model = new PhotoModel(null, new Dimension(1000, 800));
+        PhotoModel read = new PhotoModel(null, new Dimension(1000, 800));
+        fill(model);
+        AnnotationFile.read(ByteBuffer.wrap(encode(model)), read, "test");
+        assertEquals(model.getStrokes().getPointCount(), read.getStrokes().getPointCount());
+        assertEquals("a text", read.getAnnotations().get(0).getText());
+    }
+
+    // A huge count anywhere in the file is an error of the file, not an allocation that runs out of memory
+    @Test
+    void rejectsCorruptedCounts() {
+        PhotoModel model = new PhotoModel(null, new Dimension(1000, 800));
+        fill(model);
+        byte[] encoded = encode(model);
+        byte[] hugeVarint = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        for (int offset = 0; offset + hugeVarint.length <= encoded.length; offset++) {
+            byte[] corrupted = encoded.clone();
+            System.arraycopy(hugeVarint, 0, corrupted, offset, hugeVarint.length);
+            try {
+                AnnotationFile.read(ByteBuffer.wrap(corrupted), new PhotoModel(null, new Dimension(1000, 800)), "test");
+            } catch (IOException e) {
+                // Expected for most offsets
+            } catch (RuntimeException | OutOfMemoryError e) {
+                fail("Corrupted at " + offset + ": " + e);
+            }
+        }
+    }
+
+    private static void fill(PhotoModel model) {
+        model.addLine(new int[]{10, 20, 30, 40}, new int[]{10, 15, 20, 25}, 4, Color.BLACK, PhotoModel.DEFAULT_STROKE_WIDTH);
+        model.addAnnotation(new TextAnnotation("a text", new Point(30, 40), Color.RED));
+    }
+
+    private static byte[] encode(PhotoModel model) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : AnnotationFile.encode(model, 0)) {
+            bytes.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AnnotationJournalTest {
+    @TempDir
+    Path folder;
+
+    // The close does not wait for the snapshot, a journal of the same photo opened after it reads it
+    @Test
+    void reopenedJournalReadsWhatWasClosed() throws IOException {
+        File photo = folder.resolve("photo.jpg").toFile();
+        PhotoModel model = new PhotoModel(null, new Dimension(1000, 800));
+        AnnotationJournal journal = AnnotationJournal.open(photo, model);
+        model.addLine(new int[]{10, 20, 30}, new int[]{10, 15, 20}, 3, Color.BLACK, PhotoModel.DEFAULT_STROKE_WIDTH);
+        model.addAnnotation(new TextAnnotation("kept", new Point(30, 40), Color.RED));
+        AtomicReference<IOException> error = new AtomicReference<>();
+        journal.close(error::set);
+
+        PhotoModel reopened = new PhotoModel(null, new Dimension(1000, 800));
+        AnnotationJournal.open(photo, reopened).close(error::set);
+        AnnotationJournal.awaitClosed();
+        assertEquals(3, reopened.getStrokes().getPointCount());
+        assertEquals("kept", reopened.getAnnotations().get(0).getText());
+        assertNull(error.get());
+    }
+
+    // A record with a valid checksum but a count larger than the record ends the log, the records before it are kept
+    @Test
+    void corruptedCountEndsTheLog() throws IOException {
+        File photo = folder.resolve("photo.jpg").toFile();
+        AnnotationFile.Output log = new AnnotationFile.Output(64);
+        log.putInt(0x504A4E4C);
+        log.putInt(AnnotationJournal.VERSION);
+        log.putInt(0);
+        log.putInt(0);
+        AnnotationFile.Output text = new AnnotationFile.Output(16);
+        text.putVarint(AnnotationOperation.Type.ADD_TEXT.ordinal());
+        text.putZigzag(5);
+        text.putZigzag(6);
+        text.putInt(Color.RED.getRGB());
+        text.putVarint(2);
+        text.put("ok".getBytes());
+        putRecord(log, text);
+        AnnotationFile.Output line = new AnnotationFile.Output(16);
+        line.putVarint(AnnotationOperation.Type.ADD_LINE.ordinal());
+        line.putInt(Color.BLACK.getRGB());
+        line.putInt(Float.floatToIntBits(PhotoModel.DEFAULT_STROKE_WIDTH));
+        line.putVarint(Integer.MAX_VALUE);
+        putRecord(log, line);
+        Files.write(AnnotationJournal.journalOf(photo), Arrays.copyOf(log.bytes, log.length));
+
+        PhotoModel model = new PhotoModel(null, new Dimension(1000, 800));
+        AnnotationJournal journal = AnnotationJournal.open(photo, model);
+        assertEquals(1, model.getAnnotations().size());
+        assertEquals(0, model.getStrokes().getStrokeCount());
+        journal.close(e -> { });
+
+        PhotoModel reopened = new PhotoModel(null, new Dimension(1000, 800));
+        AnnotationJournal.open(photo, reopened).close(e -> { });
+        AnnotationJournal.awaitClosed();
+        assertEquals("ok", reopened.getAnnotations().get(0).getText());
+    }
+
+    private static void putRecord(AnnotationFile.Output log, AnnotationFile.Output operation) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.wrap(operation.bytes, 0, operation.length));
+        log.putVarint(operation.length);
+        log.put(operation.bytes, 0, operation.length);
+        log.putInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Every operation applied to a model and then its inverse leaves the model as it was
+class AnnotationOperationTest {
+    private static final float WIDTH = PhotoModel.DEFAULT_STROKE_WIDTH;
+
+    @Test
+    void inverseRevertsEveryType() {
+        for (AnnotationOperation.Type type : AnnotationOperation.Type.values()) {
+            PhotoModel model = createModel();
+            AnnotationOperation operation;
+            switch (type) {
+                case ADD_POINT:
+                    assertThrows(IllegalStateException.class, () -> AnnotationOperation.addPoint(1, 2, Color.RED, WIDTH).inverse());
+                    continue;
+                case END_LINE:
+                    assertThrows(IllegalStateException.class, () -> AnnotationOperation.endLine().inverse());
+                    continue;
+                case REPLACE_LAST_POINT:
+                    // The last point of a line being drawn
+                    model.addPoint(new Point(300, 300), Color.RED, WIDTH);
+                    model.addPoint(new Point(310, 320), Color.RED, WIDTH);
+                    operation = AnnotationOperation.replaceLastPoint(310, 320, 400, 420);
+                    break;
+                case ADD_LINE:
+                    operation = AnnotationOperation.addLine(new int[]{5, 6, 7}, new int[]{8, 9, 10}, 3, Color.GREEN, WIDTH);
+                    break;
+                case TRANSLATE_LINE:
+                    operation = AnnotationOperation.translateLine(0, 15, -4);
+                    break;
+                case SET_LINE_COLOR:
+                    operation = AnnotationOperation.setLineColor(1, Color.BLUE, Color.ORANGE);
+                    break;
+                case ADD_TEXT:
+                    operation = AnnotationOperation.addText(50, 60, Color.RED, "added");
+                    break;
+                case SPLICE_TEXT:
+                    operation = AnnotationOperation.spliceText(0, 1, "ir", "XYZ");
+                    break;
+                case MOVE_TEXT:
+                    operation = AnnotationOperation.moveText(1, 200, 210, 250, 260);
+                    break;
+                case SET_TEXT_COLOR:
+                    operation = AnnotationOperation.setTextColor(0, Color.BLACK, Color.MAGENTA);
+                    break;
+                case REMOVE_LAST_LINE:
+                    operation = AnnotationOperation.removeLastLine(new int[]{100, 120, 140}, new int[]{100, 90, 110},
+                            Color.BLUE, WIDTH);
+                    break;
+                case REMOVE_LAST_TEXT:
+                    operation = AnnotationOperation.removeLastText(200, 210, Color.RED, "second");
+                    break;
+                default:
+                    throw new AssertionError("No case for " + type);
+            }
+            byte[] before = snapshot(model);
+            operation.applyTo(model);
+            operation.inverse().applyTo(model);
+            assertArrayEquals(before, snapshot(model), type.toString());
+        }
+    }
+
+    // Two lines and two texts, the last of each known to the operations removing them
+    private static PhotoModel createModel() {
+        PhotoModel model = new PhotoModel(null, new Dimension(1000, 800));
+        model.addLine(new int[]{10, 20, 30, 40}, new int[]{10, 15, 20, 25}, 4, Color.BLACK, WIDTH);
+        model.addLine(new int[]{100, 120, 140}, new int[]{100, 90, 110}, 3, Color.BLUE, WIDTH);
+        model.addAnnotation(new TextAnnotation("first", new Point(30, 40), Color.BLACK));
+        model.addAnnotation(new TextAnnotation("second", new Point(200, 210), Color.RED));
+        return model;
+    }
+
+    // The annotations as saved, with the points of a line still being drawn
+    private static byte[] snapshot(PhotoModel model) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : AnnotationFile.encode(model, 0)) {
+            bytes.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        StrokeStore strokes = model.getStrokes();
+        int[] points = new int[2 * strokes.getPointCount()];
+        for (int i = 0; i < strokes.getPointCount(); i++) {
+            points[2 * i] = strokes.getX(i);
+            points[2 * i + 1] = strokes.getY(i);
+        }
+        byte[] encoded = bytes.toByteArray();
+        byte[] result = Arrays.copyOf(encoded, encoded.length + 4 * points.length);
+        ByteBuffer.wrap(result, encoded.length, 4 * points.length).asIntBuffer().put(points);
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrokeSimplifierTest {
+    private static final double TOLERANCE = 2.0;
+
+    // Every point drawn, the ones dropped for being close to the last one too, stays within the tolerance of the line
+    @Test
+    void storedLineStaysWithinTolerance() {
+        for (int seed = 0; seed < 50; seed++) {
+            Random random = new Random(seed);
+            PhotoModel model = new PhotoModel(null, new Dimension(4000, 3000));
+            StrokeSimplifier simplifier = new StrokeSimplifier(model, TOLERANCE);
+            int[] xs = new int[500];
+            int[] ys = new int[500];
+            xs[0] = 2000;
+            ys[0] = 1500;
+            for (int i = 1; i < xs.length; i++) {
+                // Mostly forward in small steps, as the mouse moves, with some jitter
+                xs[i] = xs[i - 1] + random.nextInt(4);
+                ys[i] = ys[i - 1] + random.nextInt(5) - 2;
+            }
+            for (int i = 0; i < xs.length; i++) {
+                simplifier.addPoint(new Point(xs[i], ys[i]), Color.BLACK);
+            }
+            simplifier.finish(Color.BLACK);
+            StrokeStore strokes = model.getStrokes();
+            assertEquals(1, strokes.getStrokeCount());
+            for (int i = 0; i < xs.length; i++) {
+                double distance = distanceToLine(strokes, xs[i], ys[i]);
+                assertTrue(distance <= TOLERANCE, "seed " + seed + " point " + i + " is " + distance + " away");
+            }
+        }
+    }
+
+    // The ratio shown after a stroke is the one of that stroke
+    @Test
+    void reductionRatioIsPerStroke() {
+        PhotoModel model = new PhotoModel(null, new Dimension(4000, 3000));
+        StrokeSimplifier simplifier = new StrokeSimplifier(model, TOLERANCE);
+        for (int x = 0; x < 100; x++) {
+            simplifier.addPoint(new Point(x, 10), Color.BLACK);
+        }
+        simplifier.finish(Color.BLACK);
+        assertTrue(simplifier.getReductionRatio() > 10);
+        simplifier.addPoint(new Point(0, 100), Color.BLACK);
+        simplifier.addPoint(new Point(50, 150), Color.BLACK);
+        simplifier.finish(Color.BLACK);
+        assertEquals(1.0, simplifier.getReductionRatio());
+    }
+
+    private static double distanceToLine(StrokeStore strokes, int x, int y) {
+        double best = Double.MAX_VALUE;
+        for (int point = strokes.getStrokeStart(0); point + 1 < strokes.getStrokeEnd(0); point++) {
+            best = Math.min(best, java.awt.geom.Line2D.ptSegDist(strokes.getX(point), strokes.getY(point),
+                    strokes.getX(point + 1), strokes.getY(point + 1), x, y));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThumbnailStoreTest {
+    @TempDir
+    Path folder;
+
+    // Once most of the data file is not referenced, the valid thumbnails are moved to a new one and the old one removed
+    @Test
+    void compactionKeepsValidThumbnails() throws IOException {
+        File[] photos = new File[4];
+        ThumbnailStore store = ThumbnailStore.open(folder.toFile());
+        for (int i = 0; i < photos.length; i++) {
+            photos[i] = photo("photo" + i + ".jpg");
+            store.put(photos[i], thumbnail(new Color(i * 60, 10, 20)));
+        }
+        store.close();
+
+        store = ThumbnailStore.open(folder.toFile());
+        store.put(photos[0], thumbnail(Color.WHITE));
+        Files.delete(photos[1].toPath());
+        Files.delete(photos[2].toPath());
+        store.close();
+        Path directory = folder.resolve(ThumbnailStore.DIRECTORY_NAME);
+        assertFalse(Files.exists(directory.resolve("data-0")));
+        assertEquals(2 * 40 * 30 * 3, Files.size(directory.resolve("data-1")));
+
+        store = ThumbnailStore.open(folder.toFile());
+        assertColor(Color.WHITE, store.get(photos[0]));
+        assertColor(new Color(180, 10, 20), store.get(photos[3]));
+        store.close();
+    }
+
+    // A data file left by a compaction that did not finish is not used, the index still refers to the old one
+    @Test
+    void unfinishedCompactionIsIgnored() throws IOException {
+        File photo = photo("photo.jpg");
+        ThumbnailStore store = ThumbnailStore.open(folder.toFile());
+        store.put(photo, thumbnail(Color.BLUE));
+        store.close();
+        Path directory = folder.resolve(ThumbnailStore.DIRECTORY_NAME);
+        Files.write(directory.resolve("data-1"), new byte[40 * 30 * 3]);
+
+        store = ThumbnailStore.open(folder.toFile());
+        assertColor(Color.BLUE, store.get(photo));
+        store.close();
+        assertTrue(Files.exists(directory.resolve("data-0")));
+    }
+
+    private File photo(String name) throws IOException {
+        return Files.write(folder.resolve(name), name.getBytes()).toFile();
+    }
+
+    private static BufferedImage thumbnail(Color color) {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, 40, 30);
+        g.dispose();
+        return image;
+    }
+
+    private static void assertColor(Color expected, BufferedImage thumbnail) {
+        assertNotNull(thumbnail);
+        assertEquals(expected.getRGB(), thumbnail.getRGB(0, 0));
+        assertEquals(expected.getRGB(), thumbnail.getRGB(39, 29));
+    }
+}
@@ -0,0 +1,79 @@
+import benchmarks.ModelFixture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+// The model of ModelBenchmark drawn on a BufferedImage at the same scale, with the same clicks, for ModelBenchmarks
+public class PhotoModelFixture implements ModelFixture {
+    private PhotoModel model;
+    private List<TextAnnotation> texts;
+    private Graphics2D g;
+    private FontMetrics font;
+    private final Point origin = new Point(0, 0);
+    private Rectangle imageArea;
+    private final Point[] clicks = new Point[256];
+    private int movedLine;
+    private int counter = 0;
+
+    @Override
+    public void setUp(int strokes, int pointsPerStroke, int annotations, int textLength) {
+        model = ModelBenchmark.buildModel(strokes, pointsPerStroke, annotations, textLength);
+        texts = model.getAnnotations();
+        BufferedImage canvas = new BufferedImage((int) (ModelBenchmark.IMAGE_WIDTH * ModelBenchmark.SCALE),
+                (int) (ModelBenchmark.IMAGE_HEIGHT * ModelBenchmark.SCALE), BufferedImage.TYPE_INT_RGB);
+        g = canvas.createGraphics();
+        g.setFont(TextAnnotation.FONT);
+        font = g.getFontMetrics();
+        imageArea = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        // Clicks on the first point of the strokes and anywhere, so that hits and misses are both tested
+        Random random = new Random(7);
+        for (int i = 0; i < clicks.length; i++) {
+            clicks[i] = new Point(random.nextInt(canvas.getWidth()), random.nextInt(canvas.getHeight()));
+            if (i % 2 == 0 && model.getStrokes().getStrokeCount() > 0) {
+                int point = model.getStrokes().getStrokeStart(random.nextInt(model.getStrokes().getStrokeCount()));
+                clicks[i] = new Point((int) (model.getStrokes().getX(point) * ModelBenchmark.SCALE),
+                        (int) (model.getStrokes().getY(point) * ModelBenchmark.SCALE));
+            }
+        }
+        movedLine = strokes / 2;
+    }
+
+    @Override
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Override
+    public int drawLines() {
+        model.drawLines(g, origin, ModelBenchmark.SCALE, ModelBenchmark.SCALE, PhotoUI.NOT_SET, imageArea, line -> true);
+        return 1;
+    }
+
+    @Override
+    public int getSelectedLine() {
+        return model.getSelectedLine(clicks[counter++ & 255], origin, ModelBenchmark.SCALE, ModelBenchmark.SCALE, 5);
+    }
+
+    @Override
+    public int moveLineAt() {
+        // Back and forth, so that the line stays in the photo
+        int step = counter++ & 1;
+        model.moveLineAt(movedLine, new Point(1000 + step * 40, 1000 + step * 40));
+        return step;
+    }
+
+    @Override
+    public int drawText() {
+        texts.get(counter++ % texts.size()).draw(g, origin, ModelBenchmark.SCALE, ModelBenchmark.SCALE, imageArea);
+        return 1;
+    }
+
+    @Override
+    public int isAnnotationInPoint() {
+        int i = counter++;
+        return texts.get(i % texts.size()).isAnnotationInPoint(clicks[i & 255], origin, ModelBenchmark.SCALE,
+                ModelBenchmark.SCALE, font, imageArea) ? 1 : 0;
+    }
+}
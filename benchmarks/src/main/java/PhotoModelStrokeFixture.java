@@ -0,0 +1,78 @@
+import benchmarks.StrokeFixture;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+// The strokes of ModelBenchmark drawn by PhotoModel.drawLines, one drawLine per segment, and drawn as one Path2D per
+// stroke built once in image coordinates and stroked under the scale of the view, for StrokeDrawingBenchmarks
+public class PhotoModelStrokeFixture implements StrokeFixture {
+    private PhotoModel model;
+    private Path2D.Float[] paths;
+    private Graphics2D g;
+    private final Point origin = new Point(0, 0);
+    private Rectangle imageArea;
+    private double scale;
+
+    @Override
+    public void setUp(int strokes, int pointsPerStroke, double scale) {
+        this.scale = scale;
+        model = ModelBenchmark.buildModel(strokes, pointsPerStroke, 0, 0);
+        BufferedImage canvas = new BufferedImage((int) (ModelBenchmark.IMAGE_WIDTH * scale),
+                (int) (ModelBenchmark.IMAGE_HEIGHT * scale), BufferedImage.TYPE_INT_RGB);
+        g = canvas.createGraphics();
+        imageArea = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        StrokeStore store = model.getStrokes();
+        paths = new Path2D.Float[store.getStrokeCount()];
+        for (int line = 0; line < paths.length; line++) {
+            int start = store.getStrokeStart(line);
+            int end = store.getStrokeEnd(line);
+            paths[line] = new Path2D.Float(Path2D.WIND_NON_ZERO, end - start);
+            paths[line].moveTo(store.getX(start), store.getY(start));
+            for (int i = start + 1; i < end; i++) {
+                paths[line].lineTo(store.getX(i), store.getY(i));
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Override
+    public int drawSegments() {
+        model.drawLines(g, origin, scale, scale, PhotoUI.NOT_SET, imageArea, line -> true);
+        return 1;
+    }
+
+    // The same culling and colors as drawLines, the width is divided by the scale to stay the same on screen
+    @Override
+    public int drawPaths() {
+        StrokeStore store = model.getStrokes();
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.clip(imageArea);
+        Rectangle clip = g2.getClipBounds();
+        g2.translate(origin.x, origin.y);
+        g2.scale(scale, scale);
+        float currentWidth = -1;
+        for (int line = 0; line < paths.length; line++) {
+            int margin = (int) Math.ceil(store.getWidth(line));
+            int minX = (int) (store.getMinX(line) * scale + origin.x) - margin;
+            int minY = (int) (store.getMinY(line) * scale + origin.y) - margin;
+            int maxX = (int) (store.getMaxX(line) * scale + origin.x) + margin;
+            int maxY = (int) (store.getMaxY(line) * scale + origin.y) + margin;
+            if (maxX < clip.x || maxY < clip.y || minX > clip.x + clip.width || minY > clip.y + clip.height) {
+                continue;
+            }
+            if (store.getWidth(line) != currentWidth) {
+                currentWidth = store.getWidth(line);
+                g2.setStroke(new BasicStroke((float) (currentWidth / scale), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            }
+            g2.setColor(store.getColor(line));
+            g2.draw(paths[line]);
+        }
+        g2.dispose();
+        return 1;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks of the hot paths measured by ModelBenchmark: PhotoModel.drawLines, getSelectedLine and moveLineAt,
+// TextAnnotation.draw and isAnnotationInPoint, on the Graphics2D of a BufferedImage so that they run headless.
+// Every combination of the parameters is measured, -p strokes=100,10000 replaces their values.
+// Run with: mvn -B package && java -Djava.awt.headless=true -jar benchmarks/target/benchmarks.jar -prof gc
+// The gc profiler adds the bytes allocated per operation, gc.alloc.rate.norm, to the time of every benchmark.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ModelBenchmarks {
+    @Param({"100", "1000"})
+    public int strokes;
+
+    @Param({"100"})
+    public int points;
+
+    @Param({"10", "100"})
+    public int annotations;
+
+    @Param({"40", "400"})
+    public int textLength;
+
+    private ModelFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // A model without texts has nothing to measure for them
+        fixture = ModelFixture.create(strokes, points, Math.max(1, annotations), textLength);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public int drawLines() {
+        return fixture.drawLines();
+    }
+
+    @Benchmark
+    public int getSelectedLine() {
+        return fixture.getSelectedLine();
+    }
+
+    @Benchmark
+    public int moveLineAt() {
+        return fixture.moveLineAt();
+    }
+
+    @Benchmark
+    public int drawText() {
+        return fixture.drawText();
+    }
+
+    @Benchmark
+    public int isAnnotationInPoint() {
+        return fixture.isAnnotationInPoint();
+    }
+}
@@ -0,0 +1,30 @@
+package benchmarks;
+
+// The operations measured by ModelBenchmarks on a model built once per trial. JMH needs the benchmarks in a named
+// package, which cannot refer to the classes of the application in the default package: the default package
+// implementation, PhotoModelFixture, is loaded by name.
+public interface ModelFixture {
+    static ModelFixture create(int strokes, int pointsPerStroke, int annotations, int textLength) {
+        try {
+            ModelFixture fixture = (ModelFixture) Class.forName("PhotoModelFixture").getDeclaredConstructor().newInstance();
+            fixture.setUp(strokes, pointsPerStroke, annotations, textLength);
+            return fixture;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setUp(int strokes, int pointsPerStroke, int annotations, int textLength);
+
+    void tearDown();
+
+    int drawLines();
+
+    int getSelectedLine();
+
+    int moveLineAt();
+
+    int drawText();
+
+    int isAnnotationInPoint();
+}
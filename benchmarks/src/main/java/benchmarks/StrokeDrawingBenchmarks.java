@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Why PhotoModel.drawLines draws every segment with drawLine instead of stroking a cached Path2D per stroke: the
+// strokes of ModelBenchmark drawn both ways, the photo shown at a quarter of its size and at full size.
+// Run with: mvn -B package && java -Djava.awt.headless=true -jar benchmarks/target/benchmarks.jar StrokeDrawing
+// Measured on OpenJDK 17 (Linux, headless), microseconds per frame, lower is better:
+//   strokes  scale  segments    paths
+//   100      0.25      3 708   14 755
+//   100      1.0       3 658   18 146
+//   1000     0.25     34 516  128 214
+//   1000     1.0      46 697  182 375
+// A wide path of many short segments is stroked as one outline that overlaps itself at every turn, filling it costs
+// about four times the parallelograms of the single lines, and the culling by bounds already skips hidden strokes.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StrokeDrawingBenchmarks {
+    @Param({"100", "1000"})
+    public int strokes;
+
+    @Param({"100"})
+    public int points;
+
+    @Param({"0.25", "1.0"})
+    public double scale;
+
+    private StrokeFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = StrokeFixture.create(strokes, points, scale);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public int segments() {
+        return fixture.drawSegments();
+    }
+
+    @Benchmark
+    public int paths() {
+        return fixture.drawPaths();
+    }
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+// The two ways of drawing the strokes compared by StrokeDrawingBenchmarks, on a model built once per trial. Loaded by
+// name for the same reason as ModelFixture: the default package implementation is PhotoModelStrokeFixture.
+public interface StrokeFixture {
+    static StrokeFixture create(int strokes, int pointsPerStroke, double scale) {
+        try {
+            StrokeFixture fixture = (StrokeFixture) Class.forName("PhotoModelStrokeFixture").getDeclaredConstructor().newInstance();
+            fixture.setUp(strokes, pointsPerStroke, scale);
+            return fixture;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setUp(int strokes, int pointsPerStroke, double scale);
+
+    void tearDown();
+
+    int drawSegments();
+
+    int drawPaths();
+}